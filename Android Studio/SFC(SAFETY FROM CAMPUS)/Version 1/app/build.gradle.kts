@@ -39,6 +39,7 @@ android {
 
 dependencies {
 
+    implementation(project(":matching-core"))
     implementation(libs.appcompat)
     implementation(libs.material)
     implementation(libs.activity)
@@ -3,7 +3,6 @@ package com.example.imageanalysis;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -25,6 +24,7 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -54,6 +54,7 @@ public class AddDataActivity extends AppCompatActivity {
     private SharedPreferences sharedPreferences;
     private Bitmap selectedImage;
     private Uri selectedImageUri;
+    private File selectedImageFile;
     
     private ActivityResultLauncher<Intent> imagePickerLauncher;
 
@@ -111,8 +112,9 @@ public class AddDataActivity extends AppCompatActivity {
             String imagePath = intent.getStringExtra("image_path");
             File imageFile = new File(imagePath);
             if (imageFile.exists()) {
-                selectedImage = BitmapFactory.decodeFile(imagePath);
+                selectedImage = BitmapDecoder.decodeFile(imageFile, BitmapDecoder.ANALYSIS_LONG_EDGE);
                 if (selectedImage != null) {
+                    selectedImageFile = imageFile;
                     ivPreview.setImageBitmap(selectedImage);
                     tvNoImage.setVisibility(View.GONE);
                     
@@ -132,18 +134,15 @@ public class AddDataActivity extends AppCompatActivity {
 
     private void loadSelectedImage() {
         try {
-            InputStream inputStream = getContentResolver().openInputStream(selectedImageUri);
-            selectedImage = BitmapFactory.decodeStream(inputStream);
-            
+            selectedImage = BitmapDecoder.decodeUri(getContentResolver(), selectedImageUri,
+                    BitmapDecoder.ANALYSIS_LONG_EDGE);
+
             if (selectedImage != null) {
+                selectedImageFile = null;
                 ivPreview.setImageBitmap(selectedImage);
                 tvNoImage.setVisibility(View.GONE);
                 Toast.makeText(this, "Image selected successfully", Toast.LENGTH_SHORT).show();
             }
-            
-            if (inputStream != null) {
-                inputStream.close();
-            }
         } catch (IOException e) {
             Log.e(TAG, "Error loading image: " + e.getMessage(), e);
             Toast.makeText(this, "Failed to load image", Toast.LENGTH_SHORT).show();
@@ -190,6 +189,9 @@ public class AddDataActivity extends AppCompatActivity {
         btnSave.setEnabled(false);
         btnSave.setText("Saving...");
 
+        Bitmap imageToSave = selectedImage;
+        File sourceFile = selectedImageFile;
+        Uri sourceUri = selectedImageUri;
         new Thread(() -> {
             try {
                 // Ensure directories exist
@@ -201,13 +203,13 @@ public class AddDataActivity extends AppCompatActivity {
 
                 // Save image
                 File imageFile = new File(imageDir, baseName + ".jpg");
-                FileOutputStream fos = new FileOutputStream(imageFile);
-                selectedImage.compress(Bitmap.CompressFormat.JPEG, 90, fos);
-                fos.flush();
-                fos.close();
-                
+                saveOriginalImage(sourceFile, sourceUri, imageFile);
+
                 Log.d(TAG, "Image saved: " + imageFile.getAbsolutePath());
 
+                // Embed the new reference in the background so it is searchable right away
+                ReferenceIndexStore.getInstance(this).enroll(imageFile, imageToSave);
+
                 // Create JSON object
                 JsonObject jsonData = new JsonObject();
                 jsonData.addProperty("name", name);
@@ -228,6 +230,7 @@ public class AddDataActivity extends AppCompatActivity {
                 jsonFos.write(new Gson().toJson(jsonData).getBytes());
                 jsonFos.flush();
                 jsonFos.close();
+                ReferenceIndexStore.getInstance(this).recordsChanged();
                 
                 Log.d(TAG, "JSON saved: " + jsonFile.getAbsolutePath());
 
@@ -253,6 +256,38 @@ public class AddDataActivity extends AppCompatActivity {
         }).start();
     }
 
+    /**
+     * Store the reference at full resolution: a JPEG source is copied byte for byte, EXIF
+     * orientation included, and anything else is decoded at full size and encoded as JPEG.
+     * The preview bitmap is only sized for analysis and is never what gets saved.
+     */
+    private void saveOriginalImage(File sourceFile, Uri sourceUri, File imageFile) throws IOException {
+        if (sourceFile != null || "image/jpeg".equals(getContentResolver().getType(sourceUri))) {
+            try (InputStream in = sourceFile != null
+                    ? new FileInputStream(sourceFile) : getContentResolver().openInputStream(sourceUri);
+                 FileOutputStream out = new FileOutputStream(imageFile)) {
+                if (in == null) {
+                    throw new IOException("Cannot open " + sourceUri);
+                }
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            return;
+        }
+        Bitmap fullSize = BitmapDecoder.decodeUri(getContentResolver(), sourceUri, 0);
+        if (fullSize == null) {
+            throw new IOException("Cannot decode " + sourceUri);
+        }
+        try (FileOutputStream out = new FileOutputStream(imageFile)) {
+            fullSize.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            fullSize.recycle();
+        }
+    }
+
     private void clearForm() {
         etBaseName.setText("");
         etName.setText("");
@@ -264,6 +299,7 @@ public class AddDataActivity extends AppCompatActivity {
         
         selectedImage = null;
         selectedImageUri = null;
+        selectedImageFile = null;
         ivPreview.setImageBitmap(null);
         tvNoImage.setVisibility(View.VISIBLE);
     }
@@ -3,6 +3,7 @@ package com.example.imageanalysis;
 import android.graphics.Bitmap;
 import android.util.Log;
 
+import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.label.ImageLabel;
 import com.google.mlkit.vision.label.ImageLabeler;
@@ -13,6 +14,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Advanced image analyzer combining multiple ML techniques
@@ -20,6 +22,10 @@ import java.util.Map;
 public class AdvancedImageAnalyzer {
 
     private static final String TAG = "AdvancedImageAnalyzer";
+    /** Sample every 10th pixel of every 10th row for brightness */
+    private static final int BRIGHTNESS_STEP = 10;
+    /** Sample every 20th pixel of every 20th row for colors; a multiple of BRIGHTNESS_STEP */
+    private static final int COLOR_STEP = 20;
     private final ImageLabeler imageLabeler;
 
     public AdvancedImageAnalyzer() {
@@ -29,6 +35,19 @@ public class AdvancedImageAnalyzer {
         this.imageLabeler = ImageLabeling.getClient(options);
     }
 
+    /**
+     * Run the labeler once on a blank image so its model is loaded before the first real
+     * analysis. Blocks, so it must not be called on the main thread.
+     */
+    public void warmUp() throws ExecutionException, InterruptedException {
+        Bitmap blank = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        try {
+            Tasks.await(imageLabeler.process(InputImage.fromBitmap(blank, 0)));
+        } finally {
+            blank.recycle();
+        }
+    }
+
     /**
      * Perform comprehensive image analysis
      */
@@ -72,11 +91,10 @@ public class AdvancedImageAnalyzer {
         result.height = bitmap.getHeight();
         result.aspectRatio = (double) bitmap.getWidth() / bitmap.getHeight();
 
-        // Analyze brightness
-        result.brightness = calculateBrightness(bitmap);
-
-        // Detect dominant colors
-        result.dominantColors = detectDominantColors(bitmap);
+        // Analyze brightness and detect dominant colors on the same sampled rows
+        ImageStatistics.Accumulator statistics = sampleStatistics(bitmap);
+        result.brightness = statistics.averageBrightness();
+        result.dominantColors = statistics.dominantColors(3);
 
         // Categorize image content
         result.category = categorizeImage(labels);
@@ -88,69 +106,21 @@ public class AdvancedImageAnalyzer {
     }
 
     /**
-     * Calculate average brightness of image
-     */
-    private double calculateBrightness(Bitmap bitmap) {
-        long totalBrightness = 0;
-        int sampleSize = 10; // Sample every 10th pixel for performance
-        int sampleCount = 0;
-
-        for (int y = 0; y < bitmap.getHeight(); y += sampleSize) {
-            for (int x = 0; x < bitmap.getWidth(); x += sampleSize) {
-                int pixel = bitmap.getPixel(x, y);
-                int r = (pixel >> 16) & 0xff;
-                int g = (pixel >> 8) & 0xff;
-                int b = pixel & 0xff;
-                totalBrightness += (r + g + b) / 3;
-                sampleCount++;
-            }
-        }
-
-        return sampleCount > 0 ? (double) totalBrightness / sampleCount / 255.0 : 0.5;
-    }
-
-    /**
-     * Detect dominant colors in image
+     * Brightness and color totals of the sampled rows, read one at a time into a single
+     * row buffer
      */
-    private List<String> detectDominantColors(Bitmap bitmap) {
-        Map<String, Integer> colorCounts = new HashMap<>();
-        int sampleSize = 20;
-
-        for (int y = 0; y < bitmap.getHeight(); y += sampleSize) {
-            for (int x = 0; x < bitmap.getWidth(); x += sampleSize) {
-                int pixel = bitmap.getPixel(x, y);
-                String colorName = getColorName(pixel);
-                colorCounts.put(colorName, colorCounts.getOrDefault(colorName, 0) + 1);
+    private static ImageStatistics.Accumulator sampleStatistics(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int[] row = new int[width];
+        ImageStatistics.Accumulator statistics = new ImageStatistics.Accumulator();
+        for (int y = 0; y < bitmap.getHeight(); y += BRIGHTNESS_STEP) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            statistics.addBrightness(row, 0, width, BRIGHTNESS_STEP);
+            if (y % COLOR_STEP == 0) {
+                statistics.addColors(row, 0, width, COLOR_STEP);
             }
         }
-
-        // Get top 3 colors
-        List<String> dominantColors = new ArrayList<>();
-        colorCounts.entrySet().stream()
-                .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue()))
-                .limit(3)
-                .forEach(e -> dominantColors.add(e.getKey()));
-
-        return dominantColors;
-    }
-
-    /**
-     * Get basic color name from pixel
-     */
-    private String getColorName(int pixel) {
-        int r = (pixel >> 16) & 0xff;
-        int g = (pixel >> 8) & 0xff;
-        int b = pixel & 0xff;
-
-        // Simple color categorization
-        if (r > 200 && g > 200 && b > 200) return "White";
-        if (r < 50 && g < 50 && b < 50) return "Black";
-        if (r > g && r > b) return "Red";
-        if (g > r && g > b) return "Green";
-        if (b > r && b > g) return "Blue";
-        if (r > 150 && g > 150 && b < 100) return "Yellow";
-        if ((r + g + b) / 3 > 128) return "Light";
-        return "Dark";
+        return statistics;
     }
 
     /**
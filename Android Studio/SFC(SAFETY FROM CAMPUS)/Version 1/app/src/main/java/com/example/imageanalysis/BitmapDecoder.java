@@ -0,0 +1,248 @@
+package com.example.imageanalysis;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images at the resolution their consumer needs instead of at full size.
+ *
+ * The image bounds are read first and the decoder subsamples by a power of two while the
+ * result still covers the requested size, so a 12 MP photo shown as a thumbnail costs a
+ * fraction of the memory and decode time. Face crops are read with {@link BitmapRegionDecoder}
+ * so only the rows and columns around the face are ever decoded at full detail.
+ *
+ * Decoded files are upright: the EXIF orientation of the source is applied after decoding,
+ * and bounds and regions are given in upright coordinates, so camera files saved with only an
+ * orientation tag look and match the same as ones written already rotated.
+ */
+public final class BitmapDecoder {
+
+    private static final String TAG = "BitmapDecoder";
+
+    /** Photos that are analyzed: faces stay sharp for the embedder after detection */
+    public static final int ANALYSIS_LONG_EDGE = 1600;
+    /** Photos shown on a full screen or in a dialog */
+    public static final int DISPLAY_LONG_EDGE = 1280;
+    /** List thumbnails */
+    public static final int THUMBNAIL_LONG_EDGE = 256;
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Upright width and height of the image without decoding its pixels, or null when it cannot
+     * be read
+     */
+    public static int[] readBounds(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        return swapsAxes(readOrientation(file))
+                ? new int[]{options.outHeight, options.outWidth}
+                : new int[]{options.outWidth, options.outHeight};
+    }
+
+    /**
+     * Largest power-of-two subsampling that keeps the long edge at or above {@code maxLongEdge}
+     */
+    public static int sampleSizeFor(int width, int height, int maxLongEdge) {
+        int longEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (maxLongEdge > 0 && longEdge / (sampleSize * 2) >= maxLongEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decode the file with its long edge reduced toward {@code maxLongEdge}; null when it
+     * cannot be decoded
+     */
+    public static Bitmap decodeFile(File file, int maxLongEdge) {
+        int[] bounds = readBounds(file);
+        if (bounds == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(bounds[0], bounds[1], maxLongEdge);
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        return bitmap != null ? applyOrientation(bitmap, readOrientation(file)) : null;
+    }
+
+    /**
+     * Same as {@link #decodeFile} for an encoded image held in memory, but left as stored: camera
+     * buffers come with their rotation, which the caller applies
+     */
+    public static Bitmap decodeByteArray(byte[] data, int maxLongEdge) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = sampleSizeFor(options.outWidth, options.outHeight, maxLongEdge);
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * Same as {@link #decodeFile} for a content URI, which is opened once each for the bounds,
+     * the pixels and the EXIF orientation
+     */
+    public static Bitmap decodeUri(ContentResolver resolver, Uri uri, int maxLongEdge) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return null;
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = sampleSizeFor(options.outWidth, options.outHeight, maxLongEdge);
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            bitmap = in != null ? BitmapFactory.decodeStream(in, null, options) : null;
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in != null) orientation = readOrientation(new ExifInterface(in));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read EXIF orientation: " + e.getMessage());
+        }
+        return applyOrientation(bitmap, orientation);
+    }
+
+    /**
+     * Decode only the region of the file, subsampled while its short edge stays at or above
+     * {@code minShortEdge}. The region is in upright coordinates, like {@link #readBounds}, and is
+     * clamped to the image; null when nothing is left of it.
+     */
+    @SuppressWarnings("deprecation")
+    public static Bitmap decodeRegion(File file, Rect region, int minShortEdge) throws IOException {
+        int orientation = readOrientation(file);
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false);
+        try {
+            // Map the upright region back onto the stored pixels, which is all the decoder knows
+            Matrix toUpright = uprightMatrix(orientation, decoder.getWidth(), decoder.getHeight());
+            Matrix toStored = new Matrix();
+            toUpright.invert(toStored);
+            RectF mapped = new RectF(region);
+            toStored.mapRect(mapped);
+            Rect clamped = new Rect();
+            mapped.round(clamped);
+            if (!clamped.intersect(0, 0, decoder.getWidth(), decoder.getHeight())) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            int shortEdge = Math.min(clamped.width(), clamped.height());
+            options.inSampleSize = 1;
+            while (shortEdge / (options.inSampleSize * 2) >= minShortEdge) {
+                options.inSampleSize *= 2;
+            }
+            Bitmap bitmap = decoder.decodeRegion(clamped, options);
+            return bitmap != null ? applyOrientation(bitmap, orientation) : null;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * EXIF orientation of the file, {@link ExifInterface#ORIENTATION_NORMAL} when it has none
+     */
+    public static int readOrientation(File file) {
+        try {
+            return readOrientation(new ExifInterface(file.getAbsolutePath()));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read EXIF orientation of " + file.getName() + ": " + e.getMessage());
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static int readOrientation(ExifInterface exif) {
+        return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    }
+
+    private static boolean swapsAxes(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270
+                || orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+    }
+
+    /**
+     * Transform from the stored pixels to the upright image, translated so the upright image
+     * starts at the origin
+     */
+    private static Matrix uprightMatrix(int orientation, int width, int height) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return matrix;
+        }
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        return matrix;
+    }
+
+    /**
+     * The bitmap turned upright; the original is recycled when a new one had to be made
+     */
+    private static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        if (orientation == ExifInterface.ORIENTATION_NORMAL
+                || orientation == ExifInterface.ORIENTATION_UNDEFINED) {
+            return bitmap;
+        }
+        Matrix matrix = uprightMatrix(orientation, bitmap.getWidth(), bitmap.getHeight());
+        Bitmap upright = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (upright != bitmap) {
+            bitmap.recycle();
+        }
+        return upright;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.imageanalysis;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link StagedEnrollment} over bitmaps and the models of an {@link ImageMatcher}.
+ *
+ * Images are decoded at detection size and only the detected face is decoded again at full
+ * detail, so the bitmaps held in the stage queues stay small.
+ */
+public class EnrollmentPipeline extends StagedEnrollment<Bitmap> {
+
+    private static final String TAG = "EnrollmentPipeline";
+
+    private final ImageMatcher imageMatcher;
+
+    public EnrollmentPipeline(ImageMatcher imageMatcher, int decodeThreads, int detectThreads,
+                              int embedThreads, int queueCapacity) {
+        super(decodeThreads, detectThreads, embedThreads, queueCapacity, imageMatcher.getMaxBatchSize());
+        this.imageMatcher = imageMatcher;
+    }
+
+    /**
+     * Pipeline sized for the current device: decoding scales with the cores and there is one
+     * embedding worker per interpreter in the {@link ImageMatcher} pool
+     */
+    public static EnrollmentPipeline withDefaults(ImageMatcher imageMatcher) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new EnrollmentPipeline(imageMatcher, Math.max(1, Math.min(4, cores / 2)), 2,
+                imageMatcher.getInterpreterPoolSize(), imageMatcher.getMaxBatchSize());
+    }
+
+    @Override
+    public float[][] embedAll(List<File> imageFiles) throws IOException {
+        float[][] embeddings = super.embedAll(imageFiles);
+        Log.d(TAG, getLastStats() + ", interpreters: " + imageMatcher.getContentionStats());
+        return embeddings;
+    }
+
+    @Override
+    protected Bitmap decode(File file) {
+        // Detection only needs a small image; the face is read again at full detail afterwards
+        Bitmap bitmap = BitmapDecoder.decodeFile(file, imageMatcher.getDetectionLongEdge());
+        if (bitmap == null) {
+            Log.w(TAG, "Failed to decode reference image: " + file.getName());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Just the face, decoded from the file at the detail the embedder needs
+     */
+    @Override
+    protected Bitmap locateFace(File file, Bitmap image) throws Exception {
+        Rect box = imageMatcher.detectFace(image, ImageMatcher.DETECT_ACCURATE);
+        int[] bounds = BitmapDecoder.readBounds(file);
+        if (box == null || bounds == null) {
+            return null;
+        }
+        float scaleX = (float) bounds[0] / image.getWidth();
+        float scaleY = (float) bounds[1] / image.getHeight();
+        Rect sourceBox = new Rect(Math.round(box.left * scaleX), Math.round(box.top * scaleY),
+                Math.round(box.right * scaleX), Math.round(box.bottom * scaleY));
+        return BitmapDecoder.decodeRegion(file, sourceBox, FacePreprocessor.INPUT_SIZE);
+    }
+
+    @Override
+    protected float[][] embed(List<Bitmap> faces) throws InterruptedException {
+        List<ImageMatcher.FaceRegion> regions = new ArrayList<>(faces.size());
+        for (Bitmap face : faces) {
+            regions.add(new ImageMatcher.FaceRegion(face, new Rect(0, 0, face.getWidth(), face.getHeight())));
+        }
+        return imageMatcher.embedFaces(regions);
+    }
+
+    @Override
+    protected void release(Bitmap image) {
+        image.recycle();
+    }
+
+    @Override
+    protected void onFailure(String stage, File file, Throwable error) {
+        Log.e(TAG, "Enrollment " + stage + " failed for " + file.getName() + ": " + error, error);
+    }
+}
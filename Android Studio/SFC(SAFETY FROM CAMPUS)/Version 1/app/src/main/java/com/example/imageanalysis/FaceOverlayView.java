@@ -0,0 +1,105 @@
+package com.example.imageanalysis;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Draws live face boxes and their matches on top of a {@code PreviewView}.
+ *
+ * Boxes arrive in analysis frame coordinates and are mapped the way the preview's
+ * {@code fillCenter} scale type maps the camera stream, so preview and analysis must be bound
+ * with the same aspect ratio.
+ */
+public class FaceOverlayView extends View {
+
+    private final Paint matchedPaint = new Paint();
+    private final Paint unknownPaint = new Paint();
+    private final Paint labelPaint = new Paint();
+    private final Paint statsPaint = new Paint();
+    private final RectF mapped = new RectF();
+
+    private List<LiveRecognitionAnalyzer.LiveFace> faces = Collections.emptyList();
+    private int frameWidth;
+    private int frameHeight;
+    private String statsText;
+
+    public FaceOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public FaceOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+
+        matchedPaint.setStyle(Paint.Style.STROKE);
+        matchedPaint.setStrokeWidth(3 * density);
+        matchedPaint.setColor(Color.GREEN);
+
+        unknownPaint.set(matchedPaint);
+        unknownPaint.setColor(Color.RED);
+
+        labelPaint.setColor(Color.WHITE);
+        labelPaint.setTextSize(14 * density);
+        labelPaint.setAntiAlias(true);
+        labelPaint.setShadowLayer(2 * density, 0, 0, Color.BLACK);
+
+        statsPaint.set(labelPaint);
+        statsPaint.setTextSize(12 * density);
+    }
+
+    /**
+     * Replace the drawn faces; must be called on the main thread
+     */
+    public void setFaces(List<LiveRecognitionAnalyzer.LiveFace> faces, int frameWidth, int frameHeight,
+                         LiveRecognitionAnalyzer.LiveStats stats) {
+        this.faces = faces;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.statsText = stats != null ? String.format(Locale.US, "%.1f fps  %d dropped  %.0f%% cached",
+                stats.framesPerSecond, stats.framesDropped, stats.trackCache.getHitRate() * 100) : null;
+        invalidate();
+    }
+
+    public void clear() {
+        faces = Collections.emptyList();
+        statsText = null;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (frameWidth > 0 && frameHeight > 0) {
+            // fillCenter: scale until the frame covers the view, then centre it
+            float scale = Math.max((float) getWidth() / frameWidth, (float) getHeight() / frameHeight);
+            float offsetX = (getWidth() - frameWidth * scale) / 2;
+            float offsetY = (getHeight() - frameHeight * scale) / 2;
+
+            for (LiveRecognitionAnalyzer.LiveFace face : faces) {
+                Rect box = face.boundingBox;
+                mapped.set(box.left * scale + offsetX, box.top * scale + offsetY,
+                        box.right * scale + offsetX, box.bottom * scale + offsetY);
+                boolean matched = face.match != null && face.match.matched;
+                canvas.drawRect(mapped, matched ? matchedPaint : unknownPaint);
+
+                String label = matched
+                        ? String.format(Locale.US, "%s %.2f", face.match.baseName, face.match.similarity)
+                        : "Unknown";
+                canvas.drawText(label, mapped.left, mapped.top - labelPaint.descent(), labelPaint);
+            }
+        }
+        if (statsText != null) {
+            canvas.drawText(statsText, statsPaint.getTextSize() / 2, statsPaint.getTextSize() * 1.5f, statsPaint);
+        }
+    }
+}
@@ -3,7 +3,6 @@ package com.example.imageanalysis;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -154,7 +153,7 @@ public class HistoryActivity extends AppCompatActivity {
         if (item.getCapturedImagePath() != null) {
             File capturedFile = new File(item.getCapturedImagePath());
             if (capturedFile.exists()) {
-                Bitmap capturedBitmap = BitmapFactory.decodeFile(capturedFile.getAbsolutePath());
+                Bitmap capturedBitmap = BitmapDecoder.decodeFile(capturedFile, BitmapDecoder.DISPLAY_LONG_EDGE);
                 if (capturedBitmap != null) {
                     ivCapturedDetail.setImageBitmap(capturedBitmap);
                 }
@@ -165,7 +164,7 @@ public class HistoryActivity extends AppCompatActivity {
         if (item.getMatchedImagePath() != null) {
             File matchedFile = new File(item.getMatchedImagePath());
             if (matchedFile.exists()) {
-                Bitmap matchedBitmap = BitmapFactory.decodeFile(matchedFile.getAbsolutePath());
+                Bitmap matchedBitmap = BitmapDecoder.decodeFile(matchedFile, BitmapDecoder.DISPLAY_LONG_EDGE);
                 if (matchedBitmap != null) {
                     ivMatchedDetail.setImageBitmap(matchedBitmap);
                 }
@@ -1,7 +1,6 @@
 package com.example.imageanalysis;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -101,7 +100,7 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHold
                 File capturedFile = new File(item.getCapturedImagePath());
                 if (capturedFile.exists()) {
                     try {
-                        Bitmap capturedBitmap = BitmapFactory.decodeFile(capturedFile.getAbsolutePath());
+                        Bitmap capturedBitmap = BitmapDecoder.decodeFile(capturedFile, BitmapDecoder.THUMBNAIL_LONG_EDGE);
                         if (capturedBitmap != null) {
                             ivCapturedThumbnail.setImageBitmap(capturedBitmap);
                         } else {
@@ -120,7 +119,7 @@ public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHold
                 File matchedFile = new File(item.getMatchedImagePath());
                 if (matchedFile.exists()) {
                     try {
-                        Bitmap matchedBitmap = BitmapFactory.decodeFile(matchedFile.getAbsolutePath());
+                        Bitmap matchedBitmap = BitmapDecoder.decodeFile(matchedFile, BitmapDecoder.THUMBNAIL_LONG_EDGE);
                         if (matchedBitmap != null) {
                             ivMatchedThumbnail.setImageBitmap(matchedBitmap);
                         } else {
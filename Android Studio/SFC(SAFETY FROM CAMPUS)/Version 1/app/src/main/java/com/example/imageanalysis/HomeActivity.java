@@ -5,15 +5,17 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.pdf.PdfDocument;
+import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Size;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -26,15 +28,21 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCaptureException;
 import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
+import androidx.camera.core.resolutionselector.AspectRatioStrategy;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -43,6 +51,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -57,8 +66,12 @@ public class HomeActivity extends AppCompatActivity {
     private static final String TAG = "HomeActivity";
     private static final int CAMERA_PERMISSION_CODE = 100;
     private static final String PREFS_NAME = "SFCPrefs";
+    private static final String PREF_LIVE_RECOGNITION = "live_recognition";
+    /** Analysis frames this size keep small faces detectable at several recognitions per second */
+    private static final Size LIVE_ANALYSIS_SIZE = new Size(640, 480);
 
     private PreviewView previewView;
+    private FaceOverlayView faceOverlay;
     private ImageView imagePreview;
     private TextView tvPlaceholder;
     private TextView tvAnalysisResult;
@@ -69,16 +82,25 @@ public class HomeActivity extends AppCompatActivity {
 
     private ProcessCameraProvider cameraProvider;
     private ImageCapture imageCapture;
+    private ImageAnalysis imageAnalysis;
+    private ExecutorService analysisExecutor;
+    private LiveRecognitionAnalyzer liveAnalyzer;
+    private boolean liveRecognition;
     private boolean isCameraStarted = false;
     private ExecutorService cameraExecutor;
+    private ExecutorService saveExecutor;
     private File outputDirectory;
     private SharedPreferences sharedPreferences;
     private File lastCapturedFile;
+    /** A capture is being written; Add Data waits for it instead of offering the previous file */
+    private boolean captureSaving;
     private JsonObject matchedData;
     private AdvancedImageAnalyzer advancedAnalyzer;
     private Bitmap lastCapturedBitmap;
     private HistoryManager historyManager;
     private ImageMatcher imageMatcher;
+    private MatchJobRunner matchJobRunner;
+    private MatchJobRunner.MatchJob currentMatchJob;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -89,6 +111,7 @@ public class HomeActivity extends AppCompatActivity {
         setSupportActionBar(toolbar);
 
         previewView = findViewById(R.id.previewView);
+        faceOverlay = findViewById(R.id.faceOverlay);
         imagePreview = findViewById(R.id.imagePreview);
         tvPlaceholder = findViewById(R.id.tvPlaceholder);
         tvAnalysisResult = findViewById(R.id.tvAnalysisResult);
@@ -101,18 +124,29 @@ public class HomeActivity extends AppCompatActivity {
         btnCaptureImage.setEnabled(false);
 
         cameraExecutor = Executors.newSingleThreadExecutor();
+        saveExecutor = Executors.newSingleThreadExecutor();
+        analysisExecutor = Executors.newSingleThreadExecutor();
         outputDirectory = getOutputDirectory();
         sharedPreferences = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        liveRecognition = sharedPreferences.getBoolean(PREF_LIVE_RECOGNITION, false);
         setupDefaultFolders();
         historyManager = new HistoryManager(this);
-        advancedAnalyzer = new AdvancedImageAnalyzer();
 
-        try {
-            imageMatcher = new ImageMatcher(this);
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to initialize ImageMatcher", e);
-            Toast.makeText(this, "Failed to initialize facial recognition.", Toast.LENGTH_LONG).show();
-        }
+        // Models load in the background from the login screen on; usually they are ready by now
+        Futures.addCallback(MlEngine.getInstance(this).whenReady(), new FutureCallback<MlEngine>() {
+            @Override
+            public void onSuccess(MlEngine engine) {
+                if (isDestroyed()) return;
+                onModelsReady(engine);
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to initialize ImageMatcher", t);
+                if (isDestroyed()) return;
+                Toast.makeText(HomeActivity.this, "Failed to initialize facial recognition.", Toast.LENGTH_LONG).show();
+            }
+        }, ContextCompat.getMainExecutor(this));
 
 
         btnStartCamera.setOnClickListener(v -> {
@@ -128,17 +162,49 @@ public class HomeActivity extends AppCompatActivity {
         btnAnalyzeMatch.setOnClickListener(v -> findMatchingImage());
     }
 
+    private void onModelsReady(MlEngine engine) {
+        imageMatcher = engine.getImageMatcher();
+        advancedAnalyzer = engine.getAdvancedAnalyzer();
+        ReferenceIndexStore referenceStore = ReferenceIndexStore.getInstance(this);
+        matchJobRunner = new MatchJobRunner(imageMatcher, referenceStore);
+        liveAnalyzer = new LiveRecognitionAnalyzer(imageMatcher, referenceStore,
+                (faces, frameWidth, frameHeight, stats) -> {
+                    if (previewView.getVisibility() == View.VISIBLE) {
+                        faceOverlay.setFaces(faces, frameWidth, frameHeight, stats);
+                    }
+                });
+        // The camera may have started before the models were ready
+        if (isCameraStarted && liveRecognition) {
+            bindCameraUseCases();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.home_menu, menu);
+        menu.findItem(R.id.action_live_recognition).setChecked(liveRecognition);
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_add_data).setEnabled(!captureSaving);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
 
-        if (id == R.id.action_add_data) {
+        if (id == R.id.action_live_recognition) {
+            liveRecognition = !item.isChecked();
+            item.setChecked(liveRecognition);
+            sharedPreferences.edit().putBoolean(PREF_LIVE_RECOGNITION, liveRecognition).apply();
+            if (isCameraStarted) {
+                bindCameraUseCases();
+            }
+            return true;
+        } else if (id == R.id.action_add_data) {
             Intent intent = new Intent(this, AddDataActivity.class);
             if (lastCapturedFile != null && lastCapturedFile.exists()) {
                 intent.putExtra("image_path", lastCapturedFile.getAbsolutePath());
@@ -160,6 +226,10 @@ public class HomeActivity extends AppCompatActivity {
             Intent intent = new Intent(this, ExportActivity.class);
             startActivity(intent);
             return true;
+        } else if (id == R.id.action_rescan_references) {
+            ReferenceIndexStore.getInstance(this).requestRescan();
+            Toast.makeText(this, R.string.rescan_scheduled, Toast.LENGTH_SHORT).show();
+            return true;
         } else if (id == R.id.action_settings) {
             Intent intent = new Intent(this, SettingsActivity.class);
             startActivity(intent);
@@ -263,7 +333,13 @@ public class HomeActivity extends AppCompatActivity {
     }
 
     private void bindCameraUseCases() {
-        Preview preview = new Preview.Builder().build();
+        // Preview and analysis share one aspect ratio so overlay boxes line up with the preview
+        ResolutionSelector previewResolution = new ResolutionSelector.Builder()
+                .setAspectRatioStrategy(AspectRatioStrategy.RATIO_4_3_FALLBACK_AUTO_STRATEGY)
+                .build();
+        Preview preview = new Preview.Builder()
+                .setResolutionSelector(previewResolution)
+                .build();
         preview.setSurfaceProvider(previewView.getSurfaceProvider());
 
         imageCapture = new ImageCapture.Builder()
@@ -273,9 +349,31 @@ public class HomeActivity extends AppCompatActivity {
 
         CameraSelector cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA;
 
+        imageAnalysis = null;
+        if (liveRecognition && liveAnalyzer != null) {
+            // Only the newest frame is kept, so a slow frame drops frames rather than adding lag
+            imageAnalysis = new ImageAnalysis.Builder()
+                    .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                    .setResolutionSelector(new ResolutionSelector.Builder()
+                            .setAspectRatioStrategy(AspectRatioStrategy.RATIO_4_3_FALLBACK_AUTO_STRATEGY)
+                            .setResolutionStrategy(new ResolutionStrategy(LIVE_ANALYSIS_SIZE,
+                                    ResolutionStrategy.FALLBACK_RULE_CLOSEST_HIGHER_THEN_LOWER))
+                            .build())
+                    .build();
+            String imageFolderPath = sharedPreferences.getString("image_path", "");
+            liveAnalyzer.setImageFolder(imageFolderPath.isEmpty() ? null : new File(imageFolderPath));
+            imageAnalysis.setAnalyzer(analysisExecutor, liveAnalyzer);
+        }
+        faceOverlay.clear();
+        faceOverlay.setVisibility(imageAnalysis != null ? View.VISIBLE : View.GONE);
+
         try {
             cameraProvider.unbindAll();
-            cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture);
+            if (imageAnalysis != null) {
+                cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture, imageAnalysis);
+            } else {
+                cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture);
+            }
         } catch (Exception e) {
             Log.e(TAG, "Failed to bind camera use cases: " + e.getMessage(), e);
         }
@@ -287,6 +385,8 @@ public class HomeActivity extends AppCompatActivity {
             isCameraStarted = false;
             updateButtonStates();
             previewView.setVisibility(View.GONE);
+            faceOverlay.clear();
+            faceOverlay.setVisibility(View.GONE);
         }
     }
 
@@ -296,23 +396,48 @@ public class HomeActivity extends AppCompatActivity {
         String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(System.currentTimeMillis());
         String fileName = "IMG_" + timestamp + ".jpg";
         File photoFile = new File(outputDirectory, fileName);
+        long captureStart = SystemClock.elapsedRealtime();
 
-        ImageCapture.OutputFileOptions outputOptions = new ImageCapture.OutputFileOptions.Builder(photoFile).build();
-
+        // The photo stays in memory: analysis starts from the captured buffer while the JPEG
+        // is written to disk in parallel, instead of waiting for the write and decoding it back
         imageCapture.takePicture(
-                outputOptions,
                 cameraExecutor,
-                new ImageCapture.OnImageSavedCallback() {
+                new ImageCapture.OnImageCapturedCallback() {
                     @Override
-                    public void onImageSaved(@NonNull ImageCapture.OutputFileResults outputFileResults) {
-                        Bitmap bitmap = BitmapFactory.decodeFile(photoFile.getAbsolutePath());
+                    public void onCaptureSuccess(@NonNull ImageProxy image) {
+                        byte[] jpeg;
+                        int rotationDegrees;
+                        try {
+                            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                            jpeg = new byte[buffer.remaining()];
+                            buffer.get(jpeg);
+                            rotationDegrees = image.getImageInfo().getRotationDegrees();
+                        } finally {
+                            image.close();
+                        }
+
+                        // The previous file no longer matches what is on screen
+                        runOnUiThread(() -> {
+                            lastCapturedFile = null;
+                            captureSaving = true;
+                            invalidateOptionsMenu();
+                        });
+                        saveExecutor.execute(() -> saveCapturedJpeg(photoFile, jpeg, rotationDegrees));
+
+                        Bitmap bitmap = decodeCapturedJpeg(jpeg, rotationDegrees);
                         if (bitmap != null) {
-                            lastCapturedFile = photoFile;
-                            lastCapturedBitmap = bitmap;
+                            Log.d(TAG, "Capture ready for analysis in "
+                                    + (SystemClock.elapsedRealtime() - captureStart) + " ms");
 
                             runOnUiThread(() -> {
+                                if (imageAnalysis != null) {
+                                    imageAnalysis.clearAnalyzer();
+                                }
                                 previewView.setVisibility(View.GONE);
+                                faceOverlay.setVisibility(View.GONE);
                                 tvPlaceholder.setVisibility(View.GONE);
+                                // Published on the main thread, where the match button reads it
+                                lastCapturedBitmap = bitmap;
                                 imagePreview.setImageBitmap(bitmap);
                                 imagePreview.setVisibility(View.VISIBLE);
                                 btnCaptureImage.setEnabled(false);
@@ -321,22 +446,80 @@ public class HomeActivity extends AppCompatActivity {
                                 performAdvancedAnalysis(bitmap);
                             });
                         } else {
-                            Log.e(TAG, "Failed to decode saved image file");
+                            Log.e(TAG, "Failed to decode captured image");
                         }
                     }
 
                     @Override
                     public void onError(@NonNull ImageCaptureException exception) {
                         Log.e(TAG, "Photo capture failed: " + exception.getMessage(), exception);
-                        if (photoFile.exists()) {
-                            if (!photoFile.delete()) {
-                                Log.e(TAG, "Failed to delete failed photo file");
-                            }
-                        }
                     }
                 });
     }
 
+    /**
+     * Decode the in-memory JPEG at analysis resolution and turn it upright
+     */
+    private Bitmap decodeCapturedJpeg(byte[] jpeg, int rotationDegrees) {
+        Bitmap bitmap = BitmapDecoder.decodeByteArray(jpeg, BitmapDecoder.ANALYSIS_LONG_EDGE);
+        if (bitmap == null || rotationDegrees == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(rotationDegrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    /**
+     * Write the captured JPEG as is and record its rotation in EXIF, the way the file-based
+     * capture did. The file only becomes the last capture once it is complete, and Add Data is
+     * enabled again either way.
+     */
+    private void saveCapturedJpeg(File photoFile, byte[] jpeg, int rotationDegrees) {
+        try (FileOutputStream out = new FileOutputStream(photoFile)) {
+            out.write(jpeg);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save captured image: " + e.getMessage(), e);
+            if (photoFile.exists() && !photoFile.delete()) {
+                Log.e(TAG, "Failed to delete failed photo file");
+            }
+            runOnUiThread(() -> {
+                captureSaving = false;
+                invalidateOptionsMenu();
+            });
+            return;
+        }
+        try {
+            ExifInterface exif = new ExifInterface(photoFile.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(exifOrientation(rotationDegrees)));
+            exif.saveAttributes();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write orientation of " + photoFile.getName() + ": " + e.getMessage());
+        }
+        runOnUiThread(() -> {
+            lastCapturedFile = photoFile;
+            captureSaving = false;
+            invalidateOptionsMenu();
+        });
+    }
+
+    private static int exifOrientation(int rotationDegrees) {
+        switch (rotationDegrees) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
     private void updateButtonStates() {
         btnStartCamera.setEnabled(!isCameraStarted);
         btnStopCamera.setEnabled(isCameraStarted);
@@ -344,6 +527,10 @@ public class HomeActivity extends AppCompatActivity {
     }
 
     private void performAdvancedAnalysis(Bitmap bitmap) {
+        if (advancedAnalyzer == null) {
+            // Still loading; the capture can be matched once the models are ready
+            return;
+        }
         runOnUiThread(() -> {
             tvAnalysisResult.setText(R.string.performing_advanced_analysis);
             tvAnalysisResult.setVisibility(View.VISIBLE);
@@ -383,50 +570,76 @@ public class HomeActivity extends AppCompatActivity {
             Toast.makeText(this, "Please capture an image first.", Toast.LENGTH_SHORT).show();
             return;
         }
-        if (imageMatcher == null) {
-            Toast.makeText(this, "Image matcher is not initialized.", Toast.LENGTH_SHORT).show();
+        if (matchJobRunner == null) {
+            Toast.makeText(this, "Face recognition is still loading, try again shortly.", Toast.LENGTH_SHORT).show();
             return;
         }
 
         String imageFolderPath = sharedPreferences.getString("image_path", "");
         File imageFolder = new File(imageFolderPath);
-        File[] imageFiles = imageFolder.listFiles((dir, name) -> name.endsWith(".jpg") || name.endsWith(".png"));
 
-        if (imageFiles == null || imageFiles.length == 0) {
-            tvAnalysisResult.setText("No reference images found in the directory.");
-            tvAnalysisResult.setVisibility(View.VISIBLE);
-            return;
+        // Photos of the same person are grouped by the id in their JSON record
+        String dataPath = SettingsActivity.getDataPath(sharedPreferences);
+        matchJobRunner.setIdentityFolder(dataPath.isEmpty() ? null : new File(dataPath));
+
+        if (currentMatchJob != null) {
+            currentMatchJob.cancel();
         }
+        btnAnalyzeMatch.setEnabled(false);
+        tvAnalysisResult.setText(R.string.scanning_reference_images);
+        tvAnalysisResult.setVisibility(View.VISIBLE);
 
-        double bestScore = -1.0;
-        File bestMatchFile = null;
-
-        // This loop is CPU-intensive and should be run in a background thread
-        // for a better user experience. For simplicity, it's shown here directly.
-        for (File imageFile : imageFiles) {
-            // Load the reference image file into a Bitmap
-            Bitmap referenceBitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath());
-            if (referenceBitmap != null) {
-                // *** FIX: Call the correct method, e.g., compareImages(Bitmap, Bitmap) ***
-                double score = imageMatcher.compareImages(lastCapturedBitmap, referenceBitmap); // Assuming the method is compareImages
-
-                if (score > bestScore) {
-                    bestScore = score;
-                    bestMatchFile = imageFile;
+        // Every face in the capture is matched; a group at the gate costs one detection pass
+        currentMatchJob = matchJobRunner.submitAllFaces(lastCapturedBitmap, imageFolder, new MatchJobRunner.FaceMatchCallback() {
+            @Override
+            public void onProgress(MatchJobRunner.MatchProgress progress) {
+                if (progress.stage == MatchJobRunner.MatchProgress.STAGE_INDEXING) {
+                    tvAnalysisResult.setText(String.format(Locale.US, "Indexing reference images %d/%d...",
+                            progress.scanned, progress.total));
+                } else if (progress.bestSoFar != null) {
+                    tvAnalysisResult.setText(String.format(Locale.US, "%s\nBest so far: %s (%.2f)",
+                            getString(R.string.comparing_images, progress.total),
+                            progress.bestSoFar.fileName, progress.bestSoFar.similarity));
                 }
-                // It's good practice to recycle bitmaps you load manually to save memory
-                referenceBitmap.recycle();
             }
-        }
 
-        if (bestMatchFile != null) {
-            String resultText = String.format(Locale.US, "Best Match: %s\nScore: %.2f", bestMatchFile.getName(), bestScore);
-            tvAnalysisResult.setText(resultText);
-            // ... (rest of your logic for handling the match)
-        } else {
-            tvAnalysisResult.setText("Could not find a match.");
-        }
-        tvAnalysisResult.setVisibility(View.VISIBLE);
+            @Override
+            public void onComplete(List<ImageMatcher.FaceMatch> faces, int referenceCount) {
+                btnAnalyzeMatch.setEnabled(true);
+                if (referenceCount == 0) {
+                    tvAnalysisResult.setText("No reference images found in the directory.");
+                    return;
+                }
+
+                StringBuilder resultText = new StringBuilder();
+                for (int i = 0; i < faces.size(); i++) {
+                    ImageMatcher.FaceMatch face = faces.get(i);
+                    if (faces.size() > 1) {
+                        resultText.append(String.format(Locale.US, "Face %d at (%d, %d):\n",
+                                i + 1, face.boundingBox.left, face.boundingBox.top));
+                    }
+                    if (!face.matches.isEmpty() && face.matches.get(0).matched) {
+                        ImageMatcher.MatchResult best = face.matches.get(0);
+                        resultText.append(String.format(Locale.US, "Best Match: %s\nScore: %.2f",
+                                best.fileName, best.similarity));
+                    } else if (!face.matches.isEmpty()) {
+                        ImageMatcher.MatchResult best = face.matches.get(0);
+                        resultText.append(String.format(Locale.US, "No confident match (closest: %s, %.2f)",
+                                best.fileName, best.similarity));
+                    } else {
+                        resultText.append("Could not find a match.");
+                    }
+                    if (i < faces.size() - 1) resultText.append("\n\n");
+                }
+                tvAnalysisResult.setText(resultText.toString());
+            }
+
+            @Override
+            public void onError(String error) {
+                btnAnalyzeMatch.setEnabled(true);
+                tvAnalysisResult.setText(error);
+            }
+        });
     }
 
     private String readFile(File file) throws IOException {
@@ -576,14 +789,35 @@ public class HomeActivity extends AppCompatActivity {
                 .show();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Results would land on a screen nobody is looking at; start over on return
+        if (currentMatchJob != null) {
+            currentMatchJob.cancel();
+            currentMatchJob = null;
+            btnAnalyzeMatch.setEnabled(true);
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (matchJobRunner != null) {
+            matchJobRunner.shutdown();
+        }
         if (cameraProvider != null) {
             cameraProvider.unbindAll();
         }
         if (cameraExecutor != null) {
             cameraExecutor.shutdown();
         }
+        if (saveExecutor != null) {
+            // Already queued captures still finish writing
+            saveExecutor.shutdown();
+        }
+        if (analysisExecutor != null) {
+            analysisExecutor.shutdown();
+        }
     }
 }
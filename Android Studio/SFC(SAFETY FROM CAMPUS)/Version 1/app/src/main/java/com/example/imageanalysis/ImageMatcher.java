@@ -13,33 +13,202 @@ import com.google.mlkit.vision.face.FaceDetection;
 import com.google.mlkit.vision.face.FaceDetector;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
 
-import org.tensorflow.lite.Interpreter;
-
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ImageMatcher {
 
     private static final String TAG = "ImageMatcher";
     private static final double SIMILARITY_THRESHOLD = 0.85; // Increased threshold for face recognition
     private static final String MODEL_FILE = "mobile_facenet.tflite";
-    private static final int EMBEDDING_SIZE = 192;
-    private static final int INPUT_IMAGE_SIZE = 112;
+    public static final int EMBEDDING_SIZE = 192;
+    private static final int INPUT_IMAGE_SIZE = FacePreprocessor.INPUT_SIZE;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 8;
+    private static final int DEFAULT_DETECTION_LONG_EDGE = 640;
+    private static final int RECENT_MATCHES = 64;
+    private static final int[] INPUT_SHAPE = {1, INPUT_IMAGE_SIZE, INPUT_IMAGE_SIZE, 3};
+
+    /** FAST detector first, ACCURATE only when the escalation policy asks for it */
+    public static final int DETECT_TIERED = 0;
+    /** ACCURATE detector only; used for enrollment images where quality matters */
+    public static final int DETECT_ACCURATE = 1;
+    /**
+     * FAST detector with tracking IDs, never escalated so IDs stay stable from frame to frame;
+     * used for live camera frames
+     */
+    public static final int DETECT_TRACKING = 2;
 
-    private final Interpreter tfLite;
-    private final FaceDetector faceDetector;
+    private final ByteBuffer model;
+    private final InterpreterPool interpreterPool;
+    private final FaceDetector fastDetector;
+    private final FaceDetector accurateDetector;
+    private final FaceDetector trackingDetector;
+    private volatile EscalationPolicy escalationPolicy = EscalationPolicy.defaults();
+    private final AtomicLong tieredDetections = new AtomicLong();
+    private final AtomicLong escalatedDetections = new AtomicLong();
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile int detectionLongEdge = DEFAULT_DETECTION_LONG_EDGE;
+    private volatile SearchOptions searchOptions = SearchOptions.defaults();
+    // Most recently accepted references, scanned before the rest of the gallery
+    private final Map<String, Boolean> recentMatches = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_MATCHES;
+        }
+    };
 
     public ImageMatcher(Context context) throws IOException {
-        tfLite = new Interpreter(loadModelFile(context));
-        FaceDetectorOptions options = new FaceDetectorOptions.Builder()
+        this(context, defaultPoolSize());
+    }
+
+    /**
+     * @param poolSize number of interpreters, i.e. how many faces can be embedded in parallel
+     */
+    public ImageMatcher(Context context, int poolSize) throws IOException {
+        model = loadModelFile(context);
+        InterpreterTuner.RuntimeConfig config = InterpreterTuner.load(context, model);
+        if (config == null) {
+            // Untuned or the model changed: start with the defaults, see tuneInBackground
+            config = InterpreterTuner.RuntimeConfig.defaults();
+        }
+        // Pooled interpreters run side by side, so together they should not ask for more cores than exist
+        config = config.withMaxThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / poolSize));
+        Log.d(TAG, "Interpreter settings: " + config);
+        interpreterPool = new InterpreterPool(model, poolSize,
+                FacePreprocessor.INPUT_BYTES, EMBEDDING_SIZE, config.toOptions());
+        fastDetector = FaceDetection.getClient(new FaceDetectorOptions.Builder()
+                .setPerformanceMode(FaceDetectorOptions.PERFORMANCE_MODE_FAST)
+                .build());
+        accurateDetector = FaceDetection.getClient(new FaceDetectorOptions.Builder()
                 .setPerformanceMode(FaceDetectorOptions.PERFORMANCE_MODE_ACCURATE)
-                .build();
-        faceDetector = FaceDetection.getClient(options);
+                .build());
+        trackingDetector = FaceDetection.getClient(new FaceDetectorOptions.Builder()
+                .setPerformanceMode(FaceDetectorOptions.PERFORMANCE_MODE_FAST)
+                .enableTracking()
+                .build());
+    }
+
+    /**
+     * Find the fastest interpreter settings for the next launch, unless this model was already
+     * tuned. Call it after warm-up; the runs also wait until no face was embedded for a while.
+     */
+    public void tuneInBackground(Context context) {
+        InterpreterTuner.tuneInBackground(context, model, FacePreprocessor.INPUT_BYTES, EMBEDDING_SIZE,
+                interpreterPool);
+    }
+
+    private static int defaultPoolSize() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public int getInterpreterPoolSize() {
+        return interpreterPool.size();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Largest number of faces {@link #embedFaces} feeds to one interpreter invocation
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public int getDetectionLongEdge() {
+        return detectionLongEdge;
+    }
+
+    /**
+     * Long edge of the proxy image the face detector runs on; larger bitmaps are downscaled
+     * for detection only. Zero or less detects on the full-resolution bitmap.
+     */
+    public void setDetectionLongEdge(int detectionLongEdge) {
+        this.detectionLongEdge = detectionLongEdge;
+    }
+
+    public SearchOptions getSearchOptions() {
+        return searchOptions;
+    }
+
+    /**
+     * Thresholds for accepting a match and for stopping a scan early
+     */
+    public void setSearchOptions(SearchOptions searchOptions) {
+        this.searchOptions = searchOptions;
+    }
+
+    public EscalationPolicy getEscalationPolicy() {
+        return escalationPolicy;
+    }
+
+    /**
+     * When a tiered detection falls back from the FAST to the ACCURATE detector
+     */
+    public void setEscalationPolicy(EscalationPolicy escalationPolicy) {
+        this.escalationPolicy = escalationPolicy;
+    }
+
+    /**
+     * How many tiered detections needed the ACCURATE detector
+     */
+    public DetectionStats getDetectionStats() {
+        return new DetectionStats(tieredDetections.get(), escalatedDetections.get());
+    }
+
+    public InterpreterPool.ContentionStats getContentionStats() {
+        return interpreterPool.getContentionStats();
+    }
+
+    /**
+     * Load the detector models and run one inference on every pooled interpreter, so the first
+     * real match does not pay for model loading and cold caches. Blocks, so it must not be
+     * called on the main thread.
+     */
+    public void warmUp() throws ExecutionException, InterruptedException {
+        Bitmap blank = Bitmap.createBitmap(INPUT_IMAGE_SIZE, INPUT_IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+        try {
+            InputImage image = InputImage.fromBitmap(blank, 0);
+            Tasks.await(fastDetector.process(image));
+            Tasks.await(accurateDetector.process(image));
+            Tasks.await(trackingDetector.process(image));
+        } finally {
+            blank.recycle();
+        }
+
+        // Borrow every interpreter at once so each of them runs
+        int[] pixels = new int[FacePreprocessor.INPUT_PIXELS];
+        List<InterpreterPool.PooledInterpreter> borrowed = new ArrayList<>();
+        try {
+            for (int i = 0; i < interpreterPool.size(); i++) {
+                InterpreterPool.PooledInterpreter pooled = interpreterPool.borrow();
+                borrowed.add(pooled);
+                FacePreprocessor.packPixels(pixels, pixels.length, pooled.inputBuffer);
+                pooled.interpreter.run(pooled.inputBuffer, pooled.output);
+            }
+        } finally {
+            for (InterpreterPool.PooledInterpreter pooled : borrowed) {
+                interpreterPool.release(pooled);
+            }
+        }
+    }
+
+    public void close() {
+        fastDetector.close();
+        accurateDetector.close();
+        trackingDetector.close();
+        interpreterPool.close();
     }
 
     private ByteBuffer loadModelFile(Context context) throws IOException {
@@ -53,11 +222,11 @@ public class ImageMatcher {
 
     public double compareImages(Bitmap img1, Bitmap img2) {
         try {
-            float[][] embedding1 = getFaceEmbedding(img1);
-            float[][] embedding2 = getFaceEmbedding(img2);
+            float[] embedding1 = getFaceEmbedding(img1);
+            float[] embedding2 = getFaceEmbedding(img2);
 
             if (embedding1 != null && embedding2 != null) {
-                return cosineSimilarity(embedding1[0], embedding2[0]);
+                return EmbeddingMatrix.cosine(embedding1, embedding2);
             }
         } catch (ExecutionException | InterruptedException e) {
             Log.e(TAG, "Error comparing images: " + e.getMessage());
@@ -65,61 +234,578 @@ public class ImageMatcher {
         return 0.0;
     }
 
-    private float[][] getFaceEmbedding(Bitmap bitmap) throws ExecutionException, InterruptedException {
-        InputImage image = InputImage.fromBitmap(bitmap, 0);
-        List<Face> faces = Tasks.await(faceDetector.process(image));
+    /**
+     * Embed the first face found in the bitmap, or return null when there is none
+     */
+    public float[] getEmbedding(Bitmap bitmap) {
+        try {
+            return getFaceEmbedding(bitmap);
+        } catch (ExecutionException | InterruptedException e) {
+            Log.e(TAG, "Error embedding image: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Similarity between two embeddings produced by {@link #getEmbedding(Bitmap)}
+     */
+    public double compareEmbeddings(float[] embedding1, float[] embedding2) {
+        return EmbeddingMatrix.cosine(embedding1, embedding2);
+    }
+
+    /**
+     * Rank the references against one probe image. The probe face is detected and
+     * embedded exactly once; each reference then costs a single vector comparison.
+     *
+     * @return up to topK results, best first, or an empty list when the probe has no face
+     */
+    public List<MatchResult> findTopMatches(Bitmap probe, EmbeddingIndex references, int topK) {
+        float[] probeEmbedding = getEmbedding(probe);
+        if (probeEmbedding == null) {
+            return Collections.emptyList();
+        }
+        return findTopMatches(probeEmbedding, references, topK);
+    }
+
+    /**
+     * Rank the references against an already computed probe embedding
+     */
+    public List<MatchResult> findTopMatches(float[] probeEmbedding, EmbeddingIndex references, int topK) {
+        return findTopMatches(probeEmbedding, references, topK, null);
+    }
 
-        if (!faces.isEmpty()) {
-            Face face = faces.get(0); // Use the first detected face
-            Rect boundingBox = face.getBoundingBox();
-            Bitmap croppedFace = Bitmap.createBitmap(bitmap, boundingBox.left, boundingBox.top, boundingBox.width(), boundingBox.height());
-            Bitmap scaledFace = Bitmap.createScaledBitmap(croppedFace, INPUT_IMAGE_SIZE, INPUT_IMAGE_SIZE, true);
+    /**
+     * Rank the references, reporting progress to the listener between blocks of
+     * {@link FaceMatchingPipeline#BLOCK_SIZE} rows. The scan stops early, returning the
+     * ranking so far, when the listener returns false.
+     *
+     * References accepted recently are scored first, then the rest of the gallery block by
+     * block. Between blocks the scan also stops once the best hit reaches the early-exit
+     * threshold with the configured margin over the runner-up.
+     */
+    public List<MatchResult> findTopMatches(float[] probeEmbedding, EmbeddingIndex references, int topK,
+                                            SearchProgressListener listener) {
+        return findTopMatches(probeEmbedding, references, topK, null, listener);
+    }
+
+    /**
+     * Same as {@link #findTopMatches(float[], EmbeddingIndex, int, SearchProgressListener)},
+     * with the runner-up for early exit taken only from other identities
+     *
+     * @param identities identities of the references, or null to compare base names
+     */
+    public List<MatchResult> findTopMatches(float[] probeEmbedding, EmbeddingIndex references, int topK,
+                                            IdentityIndex identities, SearchProgressListener listener) {
+        SearchOptions options = searchOptions;
+        List<String> recentNames = recentMatchNames();
+        int[] recentRows = new int[recentNames.size()];
+        for (int i = 0; i < recentRows.length; i++) {
+            recentRows[i] = references.findRow(recentNames.get(i));
+        }
 
-            ByteBuffer inputBuffer = convertBitmapToByteBuffer(scaledFace);
-            float[][] embedding = new float[1][EMBEDDING_SIZE];
-            tfLite.run(inputBuffer, embedding);
-            return embedding;
+        List<SearchHit> hits = FaceMatchingPipeline.search(probeEmbedding, references, topK, recentRows,
+                identities, options.earlyExit(), new FaceMatchingPipeline.ScanListener() {
+                    @Override
+                    public boolean onProgress(int scanned, int total, SearchHit bestSoFar) {
+                        return listener == null || listener.onProgress(scanned, total, bestSoFar == null ? null
+                                : result(references.getEntry(bestSoFar.row), bestSoFar.score, options));
+                    }
+
+                    @Override
+                    public void onEarlyExit(int scanned, int total) {
+                        Log.d(TAG, String.format(Locale.US, "Early exit after %d of %d references (%d recent first)",
+                                scanned, total, recentRows.length));
+                    }
+                });
+
+        List<MatchResult> ranked = new ArrayList<>(hits.size());
+        for (SearchHit hit : hits) {
+            ranked.add(result(references.getEntry(hit.row), hit.score, options));
+        }
+        if (!ranked.isEmpty() && ranked.get(0).matched) {
+            rememberMatch(ranked.get(0).fileName);
         }
-        return null;
+        return ranked;
     }
 
-    private ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * INPUT_IMAGE_SIZE * INPUT_IMAGE_SIZE * 3);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValues = new int[INPUT_IMAGE_SIZE * INPUT_IMAGE_SIZE];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    private List<String> recentMatchNames() {
+        synchronized (recentMatches) {
+            List<String> names = new ArrayList<>(recentMatches.keySet());
+            Collections.reverse(names);
+            return names;
+        }
+    }
+
+    private void rememberMatch(String fileName) {
+        synchronized (recentMatches) {
+            recentMatches.put(fileName, Boolean.TRUE);
+        }
+    }
 
-        int pixel = 0;
-        for (int i = 0; i < INPUT_IMAGE_SIZE; ++i) {
-            for (int j = 0; j < INPUT_IMAGE_SIZE; ++j) {
-                final int val = intValues[pixel++];
-                byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
-                byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
-                byteBuffer.putFloat((val & 0xFF) / 255.0f);
+    private static MatchResult result(EmbeddingIndex.Entry entry, double similarity, SearchOptions options) {
+        return new MatchResult(entry, similarity, options.acceptThreshold);
+    }
+
+    /**
+     * Rank the references against several probes in a single pass over the embedding matrix
+     *
+     * @return one ranking per probe, in probe order
+     */
+    public List<List<MatchResult>> findTopMatches(float[][] probeEmbeddings, EmbeddingIndex references, int topK) {
+        List<List<MatchResult>> rankings = new ArrayList<>(probeEmbeddings.length);
+        for (List<SearchHit> hits : FaceMatchingPipeline.search(probeEmbeddings, references, topK)) {
+            List<MatchResult> ranked = new ArrayList<>(hits.size());
+            for (SearchHit hit : hits) {
+                ranked.add(result(references.getEntry(hit.row), hit.score, searchOptions));
+            }
+            rankings.add(ranked);
+        }
+        return rankings;
+    }
+
+    /**
+     * Turn a photo ranking from any of the searches into an identity ranking. The identities
+     * of the best photos are re-ranked by their closest photo; each result names that photo
+     * and carries its score.
+     *
+     * @param photoMatches photo results for the same probe, best first
+     */
+    public List<MatchResult> rankIdentities(float[] probeEmbedding, List<MatchResult> photoMatches,
+                                            IdentityIndex identities, int topK) {
+        EmbeddingIndex index = identities.getIndex();
+        List<SearchHit> photoHits = new ArrayList<>(photoMatches.size());
+        for (MatchResult match : photoMatches) {
+            int row = index.findRow(match.fileName);
+            if (row >= 0) photoHits.add(new SearchHit(row, match.similarity));
+        }
+
+        List<MatchResult> ranked = new ArrayList<>();
+        for (IdentityIndex.IdentityMatch match
+                : identities.rerank(probeEmbedding, photoHits, topK, IdentityIndex.DEFAULT_RERANK_IDENTITIES)) {
+            MatchResult result = result(index.getEntry(match.bestRow), match.score, searchOptions);
+            result.identityId = match.identityId;
+            ranked.add(result);
+        }
+        return ranked;
+    }
+
+    /**
+     * Rank the references through their HNSW graph. Only graph nodes near the probe are
+     * scored, so results are approximate; nodes missing from the index are skipped.
+     */
+    public List<MatchResult> findTopMatches(float[] probeEmbedding, HnswIndex graph, EmbeddingIndex references,
+                                            int topK) {
+        List<MatchResult> ranked = new ArrayList<>();
+        for (SearchHit hit : graph.search(probeEmbedding, topK)) {
+            int row = references.findRow(graph.getKey(hit.row));
+            if (row >= 0) {
+                ranked.add(result(references.getEntry(row), hit.score, searchOptions));
             }
         }
-        return byteBuffer;
+        return ranked;
     }
 
-    private double cosineSimilarity(float[] vectorA, float[] vectorB) {
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += Math.pow(vectorA[i], 2);
-            normB += Math.pow(vectorB[i], 2);
+    /**
+     * Rank the references through their int8 copy. Scores of the returned results are exact;
+     * only the candidate selection is approximate.
+     */
+    public List<MatchResult> findTopMatches(float[] probeEmbedding, QuantizedEmbeddings references, int topK) {
+        EmbeddingIndex index = references.getIndex();
+        List<MatchResult> ranked = new ArrayList<>();
+        for (SearchHit hit : references.search(probeEmbedding, topK, QuantizedEmbeddings.DEFAULT_MARGIN)) {
+            ranked.add(result(index.getEntry(hit.row), hit.score, searchOptions));
         }
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+        return ranked;
+    }
+
+    private float[] getFaceEmbedding(Bitmap bitmap) throws ExecutionException, InterruptedException {
+        Rect boundingBox = detectFace(bitmap);
+        return boundingBox != null ? embedFace(bitmap, boundingBox) : null;
+    }
+
+    /**
+     * Bounding box of the first face detected in the bitmap, or null when there is none.
+     * Blocks on ML Kit, so it must not be called on the main thread.
+     */
+    public Rect detectFace(Bitmap bitmap) throws ExecutionException, InterruptedException {
+        return detectFace(bitmap, DETECT_TIERED);
+    }
+
+    /**
+     * Same as {@link #detectFace(Bitmap)} with an explicit {@link #DETECT_TIERED} or
+     * {@link #DETECT_ACCURATE} mode
+     */
+    public Rect detectFace(Bitmap bitmap, int mode) throws ExecutionException, InterruptedException {
+        List<Rect> faces = detectFaces(bitmap, mode);
+        return faces.isEmpty() ? null : faces.get(0); // Use the first detected face
+    }
+
+    /**
+     * Bounding boxes of every face in the bitmap, from a single detector call.
+     * Blocks on ML Kit, so it must not be called on the main thread.
+     */
+    public List<Rect> detectFaces(Bitmap bitmap) throws ExecutionException, InterruptedException {
+        return detectFaces(bitmap, DETECT_TIERED);
+    }
+
+    /**
+     * Same as {@link #detectFaces(Bitmap)} with an explicit {@link #DETECT_TIERED} or
+     * {@link #DETECT_ACCURATE} mode
+     */
+    public List<Rect> detectFaces(Bitmap bitmap, int mode) throws ExecutionException, InterruptedException {
+        // Detection only needs a proxy; the boxes are mapped back so crops come from the original
+        int longEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        int targetEdge = detectionLongEdge;
+        float scale = targetEdge > 0 && longEdge > targetEdge ? (float) targetEdge / longEdge : 1f;
+        int proxyWidth = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int proxyHeight = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap proxy = scale < 1f ? Bitmap.createScaledBitmap(bitmap, proxyWidth, proxyHeight, true) : bitmap;
+
+        List<Face> faces;
+        try {
+            faces = runDetector(InputImage.fromBitmap(proxy, 0), proxyWidth, proxyHeight, mode);
+        } finally {
+            if (proxy != bitmap) proxy.recycle();
+        }
+
+        float scaleX = (float) bitmap.getWidth() / proxyWidth;
+        float scaleY = (float) bitmap.getHeight() / proxyHeight;
+        List<Rect> boxes = new ArrayList<>(faces.size());
+        for (Face face : faces) {
+            Rect box = face.getBoundingBox();
+            boxes.add(new Rect(Math.round(box.left * scaleX), Math.round(box.top * scaleY),
+                    Math.round(box.right * scaleX), Math.round(box.bottom * scaleY)));
+        }
+        return boxes;
+    }
+
+    /**
+     * Every face in a camera frame, with boxes in upright frame coordinates. The frame goes to
+     * ML Kit as is, so YUV frames are detected without any conversion. With
+     * {@link #DETECT_TRACKING} each face carries a tracking ID that persists across frames.
+     */
+    public List<Face> detectFaces(InputImage frame, int mode) throws ExecutionException, InterruptedException {
+        int rotation = frame.getRotationDegrees();
+        int width = YuvConverter.uprightWidth(frame.getWidth(), frame.getHeight(), rotation);
+        int height = YuvConverter.uprightHeight(frame.getWidth(), frame.getHeight(), rotation);
+        return runDetector(frame, width, height, mode);
+    }
+
+    private List<Face> runDetector(InputImage image, int width, int height, int mode)
+            throws ExecutionException, InterruptedException {
+        if (mode == DETECT_ACCURATE) {
+            return Tasks.await(accurateDetector.process(image));
+        }
+        if (mode == DETECT_TRACKING) {
+            return Tasks.await(trackingDetector.process(image));
+        }
+        tieredDetections.incrementAndGet();
+        List<Face> faces = Tasks.await(fastDetector.process(image));
+        if (escalationPolicy.shouldEscalate(faces, width, height)) {
+            escalatedDetections.incrementAndGet();
+            faces = Tasks.await(accurateDetector.process(image));
+        }
+        return faces;
+    }
+
+    /**
+     * Detect every face in the bitmap and embed them together in as few batches as possible.
+     * Faces whose box lies outside the bitmap are dropped.
+     *
+     * @return one entry per embedded face, with no matches filled in yet
+     */
+    public List<FaceMatch> embedAllFaces(Bitmap bitmap) throws ExecutionException, InterruptedException {
+        List<FaceRegion> regions = new ArrayList<>();
+        for (Rect box : detectFaces(bitmap)) {
+            regions.add(new FaceRegion(bitmap, box));
+        }
+        float[][] embeddings = embedFaces(regions);
+
+        List<FaceMatch> faces = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            if (embeddings[i] != null) {
+                faces.add(new FaceMatch(regions.get(i).boundingBox, embeddings[i]));
+            }
+        }
+        return faces;
+    }
+
+    /**
+     * Run MobileFaceNet on the face inside the bounding box. Safe to call from several
+     * threads; each call borrows its own interpreter from the pool. Returns null when the
+     * box lies entirely outside the bitmap.
+     */
+    public float[] embedFace(Bitmap bitmap, Rect boundingBox) throws InterruptedException {
+        return embedFace(bitmap, boundingBox, new float[EMBEDDING_SIZE]);
+    }
+
+    /**
+     * Same as {@link #embedFace(Bitmap, Rect)} but writes into {@code out}. Only the pixels
+     * under the box are read, into a per-thread scratch array, and then cropped, resized and
+     * normalized straight into the interpreter input in one pass, so in steady state this
+     * allocates nothing.
+     *
+     * @return {@code out}, or null when the box lies entirely outside the bitmap
+     */
+    public float[] embedFace(Bitmap bitmap, Rect boundingBox, float[] out) throws InterruptedException {
+        InterpreterPool.PooledInterpreter pooled = interpreterPool.borrow();
+        try {
+            // ML Kit may report faces that extend past the frame; only what exists is read
+            if (!loadFace(bitmap, boundingBox, pooled.inputBuffer)) {
+                return null;
+            }
+            pooled.setBatchSize(1, INPUT_SHAPE);
+            pooled.interpreter.run(pooled.inputBuffer, pooled.output);
+            System.arraycopy(pooled.output[0], 0, out, 0, EMBEDDING_SIZE);
+            return out;
+        } finally {
+            interpreterPool.release(pooled);
+        }
+    }
+
+    /**
+     * Run MobileFaceNet on a face that is already cut out as ARGB pixels, such as a crop
+     * converted from a camera frame by {@link YuvConverter}
+     *
+     * @return {@code out}
+     */
+    public float[] embedFace(int[] pixels, int width, int height, float[] out) throws InterruptedException {
+        InterpreterPool.PooledInterpreter pooled = interpreterPool.borrow();
+        try {
+            FacePreprocessor.cropResizeNormalize(pixels, width, height, 0, 0, width, height, pooled.inputBuffer);
+            pooled.setBatchSize(1, INPUT_SHAPE);
+            pooled.interpreter.run(pooled.inputBuffer, pooled.output);
+            System.arraycopy(pooled.output[0], 0, out, 0, EMBEDDING_SIZE);
+            return out;
+        } finally {
+            interpreterPool.release(pooled);
+        }
+    }
+
+    /**
+     * Embed several faces with as few interpreter invocations as possible: the input tensor is
+     * resized to [N, 112, 112, 3] and up to {@link #getMaxBatchSize()} faces run in one call.
+     *
+     * @return embeddings aligned with {@code faces}; null where the box lies outside its bitmap
+     */
+    public float[][] embedFaces(List<FaceRegion> faces) throws InterruptedException {
+        float[][] embeddings = new float[faces.size()][];
+        if (faces.isEmpty()) {
+            return embeddings;
+        }
+
+        int batchLimit = maxBatchSize;
+        int[] batchIndices = new int[batchLimit];
+        InterpreterPool.PooledInterpreter pooled = interpreterPool.borrow();
+        try {
+            pooled.ensureBatchCapacity(batchLimit);
+            int next = 0;
+            while (next < faces.size()) {
+                // Fill the batch with faces that actually overlap their bitmap
+                int count = 0;
+                while (next < faces.size() && count < batchLimit) {
+                    FaceRegion face = faces.get(next);
+                    if (loadFace(face.bitmap, face.boundingBox, pooled.faceInput(count))) {
+                        batchIndices[count++] = next;
+                    }
+                    next++;
+                }
+                if (count == 0) continue;
+
+                pooled.setBatchSize(count, INPUT_SHAPE);
+                ByteBuffer input = pooled.batchInput(count);
+                input.rewind();
+                float[][] output = pooled.batchOutput(count);
+                pooled.interpreter.run(input, output);
+                for (int i = 0; i < count; i++) {
+                    embeddings[batchIndices[i]] = output[i].clone();
+                }
+            }
+        } finally {
+            interpreterPool.release(pooled);
+        }
+        return embeddings;
+    }
+
+    /**
+     * Crop, resize and normalize one face into the given tensor slot
+     */
+    private boolean loadFace(Bitmap bitmap, Rect boundingBox, ByteBuffer target) {
+        int left = Math.max(0, boundingBox.left);
+        int top = Math.max(0, boundingBox.top);
+        int right = Math.min(bitmap.getWidth(), boundingBox.right);
+        int bottom = Math.min(bitmap.getHeight(), boundingBox.bottom);
+        if (right <= left || bottom <= top) {
+            return false;
+        }
+
+        int width = right - left;
+        int height = bottom - top;
+        int[] pixels = FacePreprocessor.pixelScratch(width * height);
+        bitmap.getPixels(pixels, 0, width, left, top, width, height);
+        return FacePreprocessor.cropResizeNormalize(pixels, width, height, 0, 0, width, height, target);
+    }
+
+    /**
+     * A face to embed: its source bitmap and bounding box
+     */
+    public static class FaceRegion {
+        public final Bitmap bitmap;
+        public final Rect boundingBox;
+
+        public FaceRegion(Bitmap bitmap, Rect boundingBox) {
+            this.bitmap = bitmap;
+            this.boundingBox = boundingBox;
+        }
+    }
+
+    /**
+     * One face found in a probe image, its embedding and its best references
+     */
+    public static class FaceMatch {
+        public final Rect boundingBox;
+        public final float[] embedding;
+        public List<MatchResult> matches = Collections.emptyList();
+
+        public FaceMatch(Rect boundingBox, float[] embedding) {
+            this.boundingBox = boundingBox;
+            this.embedding = embedding;
+        }
+    }
+
+    /**
+     * Thresholds for a search. Results below the accept threshold are returned but not marked
+     * as matched; a hit at or above the early-exit threshold that leads the best hit of any
+     * other person by the margin ends the scan.
+     */
+    public static class SearchOptions {
+        public final double acceptThreshold;
+        public final double earlyExitThreshold;
+        public final double margin;
+
+        public SearchOptions(double acceptThreshold, double earlyExitThreshold, double margin) {
+            this.acceptThreshold = acceptThreshold;
+            this.earlyExitThreshold = earlyExitThreshold;
+            this.margin = margin;
+        }
+
+        public static SearchOptions defaults() {
+            return new SearchOptions(SIMILARITY_THRESHOLD, 0.92, 0.1);
+        }
+
+        /**
+         * Always scan the whole gallery
+         */
+        public static SearchOptions exhaustive() {
+            return new SearchOptions(SIMILARITY_THRESHOLD, Double.POSITIVE_INFINITY, 0);
+        }
+
+        /**
+         * The early-exit rule of these options, for {@link FaceMatchingPipeline#search}
+         */
+        FaceMatchingPipeline.EarlyExit earlyExit() {
+            return new FaceMatchingPipeline.EarlyExit(earlyExitThreshold, margin);
+        }
+    }
+
+    /**
+     * Decides when a FAST detection result is not good enough.
+     *
+     * ML Kit reports no per-face confidence, so face size and head pose stand in for it: small
+     * faces and strongly turned heads are where FAST mode misses or misplaces boxes.
+     */
+    public static class EscalationPolicy {
+        /** Escalate when FAST finds no face at all */
+        public final boolean escalateWhenNoFace;
+        /** Escalate when a face's short edge is below this fraction of the image's short edge */
+        public final float minFaceFraction;
+        /** Escalate when a face is turned further than this many degrees left or right */
+        public final float maxHeadYaw;
+
+        public EscalationPolicy(boolean escalateWhenNoFace, float minFaceFraction, float maxHeadYaw) {
+            this.escalateWhenNoFace = escalateWhenNoFace;
+            this.minFaceFraction = minFaceFraction;
+            this.maxHeadYaw = maxHeadYaw;
+        }
+
+        public static EscalationPolicy defaults() {
+            return new EscalationPolicy(true, 0.1f, 35f);
+        }
+
+        /**
+         * Policy that always trusts the FAST detector
+         */
+        public static EscalationPolicy never() {
+            return new EscalationPolicy(false, 0f, 180f);
+        }
+
+        public boolean shouldEscalate(List<Face> faces, int imageWidth, int imageHeight) {
+            if (faces.isEmpty()) {
+                return escalateWhenNoFace;
+            }
+            float minEdge = Math.min(imageWidth, imageHeight) * minFaceFraction;
+            for (Face face : faces) {
+                Rect box = face.getBoundingBox();
+                if (Math.min(box.width(), box.height()) < minEdge
+                        || Math.abs(face.getHeadEulerAngleY()) > maxHeadYaw) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * How many tiered detections ran and how many of them escalated to ACCURATE
+     */
+    public static class DetectionStats {
+        public final long detections;
+        public final long escalations;
+
+        public DetectionStats(long detections, long escalations) {
+            this.detections = detections;
+            this.escalations = escalations;
+        }
+
+        public double getEscalationRate() {
+            return detections > 0 ? (double) escalations / detections : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d tiered detections, %.0f%% escalated to ACCURATE",
+                    detections, getEscalationRate() * 100);
+        }
+    }
+
+    /**
+     * Receives scan progress; returning false stops the scan
+     */
+    public interface SearchProgressListener {
+        boolean onProgress(int scanned, int total, MatchResult bestSoFar);
     }
 
     public static class MatchResult {
         public boolean matched;
         public double similarity;
+        public String fileName;
+        public String baseName;
+        /** Identity the reference belongs to, when matching per identity */
+        public String identityId;
 
         public MatchResult(boolean matched, double similarity) {
             this.matched = matched;
             this.similarity = similarity;
         }
+
+        public MatchResult(EmbeddingIndex.Entry entry, double similarity) {
+            this(entry, similarity, SIMILARITY_THRESHOLD);
+        }
+
+        public MatchResult(EmbeddingIndex.Entry entry, double similarity, double acceptThreshold) {
+            this(similarity >= acceptThreshold, similarity);
+            this.fileName = entry.fileName;
+            this.baseName = entry.baseName;
+        }
     }
 }
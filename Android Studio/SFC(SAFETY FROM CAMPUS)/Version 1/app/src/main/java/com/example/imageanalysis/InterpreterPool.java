@@ -0,0 +1,196 @@
+package com.example.imageanalysis;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of TFLite interpreters.
+ *
+ * An {@link Interpreter} is not thread-safe, so each thread borrows one exclusively together
+ * with its own input and output buffers. All interpreters share the same memory-mapped model.
+ */
+public class InterpreterPool {
+
+    private final BlockingQueue<PooledInterpreter> idle;
+    private final List<PooledInterpreter> all = new ArrayList<>();
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong contendedBorrows = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * @param model       memory-mapped model, shared read-only by every interpreter
+     * @param size        number of interpreters
+     * @param inputBytes  size of the per-interpreter input buffer
+     * @param outputSize  length of the per-interpreter output vector
+     */
+    public InterpreterPool(ByteBuffer model, int size, int inputBytes, int outputSize) {
+        this(model, size, inputBytes, outputSize, new Interpreter.Options());
+    }
+
+    /**
+     * @param options runtime settings shared by every interpreter, e.g. from {@link InterpreterTuner}
+     */
+    public InterpreterPool(ByteBuffer model, int size, int inputBytes, int outputSize, Interpreter.Options options) {
+        idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            PooledInterpreter pooled = new PooledInterpreter(new Interpreter(model, options), inputBytes, outputSize);
+            all.add(pooled);
+            idle.add(pooled);
+        }
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    /**
+     * Take an interpreter, waiting if all of them are busy. Must be paired with {@link #release}.
+     */
+    public PooledInterpreter borrow() throws InterruptedException {
+        borrows.incrementAndGet();
+        PooledInterpreter pooled = idle.poll();
+        if (pooled == null) {
+            contendedBorrows.incrementAndGet();
+            long start = System.nanoTime();
+            pooled = idle.take();
+            waitNanos.addAndGet(System.nanoTime() - start);
+        }
+        return pooled;
+    }
+
+    public void release(PooledInterpreter pooled) {
+        idle.offer(pooled);
+    }
+
+    public ContentionStats getContentionStats() {
+        return new ContentionStats(borrows.get(), contendedBorrows.get(), waitNanos.get());
+    }
+
+    public void close() {
+        for (PooledInterpreter pooled : all) {
+            pooled.interpreter.close();
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    /**
+     * An interpreter plus the buffers that belong to it.
+     *
+     * The interpreter starts with a batch of one, fed from {@link #inputBuffer}. Batched calls
+     * resize its input tensor; the per-face views and batch outputs are cached so repeated
+     * batches of the same size do not allocate.
+     */
+    public static class PooledInterpreter {
+        public final Interpreter interpreter;
+        public final ByteBuffer inputBuffer;
+        public final float[][] output;
+
+        private final int inputBytes;
+        private final int outputSize;
+        private int batchSize = 1;
+        private ByteBuffer batchBuffer;
+        private ByteBuffer[] faceInputs = new ByteBuffer[0];
+        private ByteBuffer[] batchInputs = new ByteBuffer[0];
+        private float[][][] batchOutputs = new float[0][][];
+
+        PooledInterpreter(Interpreter interpreter, int inputBytes, int outputSize) {
+            this.interpreter = interpreter;
+            this.inputBuffer = ByteBuffer.allocateDirect(inputBytes).order(ByteOrder.nativeOrder());
+            this.output = new float[1][outputSize];
+            this.inputBytes = inputBytes;
+            this.outputSize = outputSize;
+        }
+
+        /**
+         * Resize the input tensor's batch dimension, reallocating tensors only when it changes
+         */
+        public void setBatchSize(int size, int[] singleInputShape) {
+            if (size == batchSize) return;
+            int[] shape = singleInputShape.clone();
+            shape[0] = size;
+            interpreter.resizeInput(0, shape);
+            interpreter.allocateTensors();
+            batchSize = size;
+        }
+
+        /**
+         * Make room for batches of up to {@code maxBatchSize} faces
+         */
+        public void ensureBatchCapacity(int maxBatchSize) {
+            if (faceInputs.length >= maxBatchSize) return;
+            batchBuffer = ByteBuffer.allocateDirect(inputBytes * maxBatchSize).order(ByteOrder.nativeOrder());
+            faceInputs = new ByteBuffer[maxBatchSize];
+            batchInputs = new ByteBuffer[maxBatchSize + 1];
+            batchOutputs = new float[maxBatchSize + 1][][];
+            for (int i = 0; i < maxBatchSize; i++) {
+                faceInputs[i] = slice(batchBuffer, i * inputBytes, inputBytes);
+            }
+        }
+
+        /**
+         * View of the batch buffer holding the input of the face at {@code index}
+         */
+        public ByteBuffer faceInput(int index) {
+            return faceInputs[index];
+        }
+
+        /**
+         * Input for a batch of {@code size} faces; its capacity matches the resized tensor
+         */
+        public ByteBuffer batchInput(int size) {
+            if (batchInputs[size] == null) {
+                batchInputs[size] = slice(batchBuffer, 0, size * inputBytes);
+            }
+            return batchInputs[size];
+        }
+
+        public float[][] batchOutput(int size) {
+            if (batchOutputs[size] == null) {
+                batchOutputs[size] = new float[size][outputSize];
+            }
+            return batchOutputs[size];
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.limit(offset + length);
+            return view.slice().order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * How often borrowers had to wait for a free interpreter, and for how long
+     */
+    public static class ContentionStats {
+        public final long borrows;
+        public final long contendedBorrows;
+        public final long waitNanos;
+
+        public ContentionStats(long borrows, long contendedBorrows, long waitNanos) {
+            this.borrows = borrows;
+            this.contendedBorrows = contendedBorrows;
+            this.waitNanos = waitNanos;
+        }
+
+        public double getContentionRate() {
+            return borrows > 0 ? (double) contendedBorrows / borrows : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d borrows, %.0f%% contended, %.1f ms total wait",
+                    borrows, getContentionRate() * 100, waitNanos / 1e6);
+        }
+    }
+}
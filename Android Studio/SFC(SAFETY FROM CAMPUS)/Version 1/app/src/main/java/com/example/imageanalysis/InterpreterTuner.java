@@ -0,0 +1,239 @@
+package com.example.imageanalysis;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Picks the TFLite runtime settings that run the embedding model fastest on this device.
+ *
+ * Thread count and XNNPACK each help on some devices and hurt on others, so instead of
+ * hard-coding them every candidate combination is timed on a canned input and the fastest is
+ * stored in preferences, keyed by a checksum of the model. Until a result exists, and after the
+ * model changes, interpreters use the defaults and a tuning run is started in the background for
+ * the next launch. The run waits until the app stops embedding faces, since timings taken next
+ * to a match are wrong and slow the match down.
+ */
+public class InterpreterTuner {
+
+    private static final String TAG = "InterpreterTuner";
+    private static final String PREFS_NAME = "SFCRuntime";
+    private static final String KEY_MODEL_CHECKSUM = "tflite_model_checksum";
+    private static final String KEY_THREADS = "tflite_threads";
+    private static final String KEY_XNNPACK = "tflite_xnnpack";
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 10;
+    /** The pool counts as idle once no interpreter was borrowed for this long */
+    private static final long IDLE_MILLIS = 30_000;
+
+    private static boolean tuning;
+
+    private InterpreterTuner() {
+    }
+
+    /**
+     * Settings stored for this model, or null when this model has not been tuned yet
+     */
+    public static RuntimeConfig load(Context context, ByteBuffer model) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (prefs.getLong(KEY_MODEL_CHECKSUM, 0) != checksum(model)) {
+            return null;
+        }
+        return new RuntimeConfig(prefs.getInt(KEY_THREADS, RuntimeConfig.defaults().threads),
+                prefs.getBoolean(KEY_XNNPACK, true));
+    }
+
+    /**
+     * Benchmark the model on a background thread and store the winner, unless this model was
+     * already tuned or a run is in progress. Every candidate waits until {@code appInterpreters}
+     * has been idle for a while.
+     */
+    public static synchronized void tuneInBackground(Context context, ByteBuffer model, int inputBytes,
+                                                     int outputSize, InterpreterPool appInterpreters) {
+        Context appContext = context.getApplicationContext();
+        if (tuning || load(appContext, model) != null) {
+            return;
+        }
+        tuning = true;
+        Thread thread = new Thread(() -> {
+            try {
+                RuntimeConfig best = tune(model, inputBytes, outputSize, appInterpreters);
+                appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                        .putLong(KEY_MODEL_CHECKSUM, checksum(model))
+                        .putInt(KEY_THREADS, best.threads)
+                        .putBoolean(KEY_XNNPACK, best.xnnpack)
+                        .apply();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interpreter tuning interrupted");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Interpreter tuning failed: " + e.getMessage(), e);
+            } finally {
+                synchronized (InterpreterTuner.class) {
+                    tuning = false;
+                }
+            }
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Time every candidate on the same canned input and return the fastest
+     *
+     * @param appInterpreters the app's own interpreters, or null to time right away
+     */
+    public static RuntimeConfig tune(ByteBuffer model, int inputBytes, int outputSize,
+                                     InterpreterPool appInterpreters) throws InterruptedException {
+        ByteBuffer input = ByteBuffer.allocateDirect(inputBytes).order(ByteOrder.nativeOrder());
+        Random random = new Random(42);
+        while (input.remaining() >= 4) {
+            input.putFloat(random.nextFloat());
+        }
+
+        RuntimeConfig best = null;
+        long bestNanos = Long.MAX_VALUE;
+        long quietBorrows = appInterpreters != null ? awaitIdle(appInterpreters) : 0;
+        for (RuntimeConfig candidate : candidates(Runtime.getRuntime().availableProcessors())) {
+            // A match started since the last candidate: let it finish and go quiet again
+            if (appInterpreters != null && appInterpreters.getContentionStats().borrows != quietBorrows) {
+                quietBorrows = awaitIdle(appInterpreters);
+            }
+            float[][] output = new float[1][outputSize];
+            long nanos;
+            Interpreter interpreter = new Interpreter(model, candidate.toOptions());
+            try {
+                nanos = medianRunNanos(interpreter, input, output);
+            } finally {
+                interpreter.close();
+            }
+            Log.d(TAG, String.format(Locale.US, "%s: %.2f ms", candidate, nanos / 1e6));
+            if (nanos < bestNanos) {
+                bestNanos = nanos;
+                best = candidate;
+            }
+        }
+        Log.i(TAG, String.format(Locale.US, "Fastest: %s at %.2f ms per inference", best, bestNanos / 1e6));
+        return best;
+    }
+
+    /**
+     * Thread counts up to the core count, each with XNNPACK on and off. FP16 relaxation is not
+     * a candidate: its interpreter option is deprecated and only ever reached NNAPI.
+     */
+    static List<RuntimeConfig> candidates(int cores) {
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        if (!threadCounts.contains(cores)) {
+            threadCounts.add(cores);
+        }
+
+        List<RuntimeConfig> candidates = new ArrayList<>();
+        for (boolean xnnpack : new boolean[]{true, false}) {
+            for (int threads : threadCounts) {
+                candidates.add(new RuntimeConfig(threads, xnnpack));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Block until no interpreter of the pool was borrowed for {@link #IDLE_MILLIS}
+     *
+     * @return the pool's borrow count at that point
+     */
+    private static long awaitIdle(InterpreterPool pool) throws InterruptedException {
+        long borrows = pool.getContentionStats().borrows;
+        while (true) {
+            Thread.sleep(IDLE_MILLIS);
+            long now = pool.getContentionStats().borrows;
+            if (now == borrows) {
+                return now;
+            }
+            borrows = now;
+        }
+    }
+
+    private static long medianRunNanos(Interpreter interpreter, ByteBuffer input, float[][] output) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            input.rewind();
+            interpreter.run(input, output);
+        }
+        long[] runs = new long[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            input.rewind();
+            long start = System.nanoTime();
+            interpreter.run(input, output);
+            runs[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(runs);
+        return runs[TIMED_RUNS / 2];
+    }
+
+    private static long checksum(ByteBuffer model) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = model.duplicate();
+        view.rewind();
+        byte[] chunk = new byte[64 * 1024];
+        while (view.hasRemaining()) {
+            int length = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        // Zero is what an untuned install reads back, so it never counts as a checksum
+        long checksum = crc.getValue() ^ ((long) model.capacity() << 32);
+        return checksum != 0 ? checksum : 1;
+    }
+
+    /**
+     * One combination of interpreter settings
+     */
+    public static class RuntimeConfig {
+        public final int threads;
+        public final boolean xnnpack;
+
+        public RuntimeConfig(int threads, boolean xnnpack) {
+            this.threads = threads;
+            this.xnnpack = xnnpack;
+        }
+
+        /**
+         * What interpreters used before tuning existed: XNNPACK with its default thread count
+         */
+        public static RuntimeConfig defaults() {
+            return new RuntimeConfig(-1, true);
+        }
+
+        /**
+         * The same settings with the thread count capped, e.g. when several interpreters
+         * share the cores. The default thread count is left alone.
+         */
+        public RuntimeConfig withMaxThreads(int maxThreads) {
+            return threads <= maxThreads ? this : new RuntimeConfig(maxThreads, xnnpack);
+        }
+
+        public Interpreter.Options toOptions() {
+            Interpreter.Options options = new Interpreter.Options();
+            options.setNumThreads(threads);
+            options.setUseXNNPACK(xnnpack);
+            return options;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d threads, XNNPACK %s", threads, xnnpack ? "on" : "off");
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.imageanalysis;
+
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.OptIn;
+import androidx.camera.core.ExperimentalGetImage;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.face.Face;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Recognizes faces in live camera frames.
+ *
+ * Frames arrive as YUV from an {@link ImageAnalysis} use case running with
+ * {@link ImageAnalysis#STRATEGY_KEEP_ONLY_LATEST}, so a slow frame makes the camera skip
+ * frames instead of queueing them. ML Kit reads the YUV frame directly and only the pixels
+ * under each face are converted for the embedder; nothing is encoded to or decoded from JPEG.
+ * The live path searches the reference index as it is and never syncs it with the folder.
+ *
+ * Faces are tracked across frames and each track keeps its last embedding and match in a
+ * {@link FaceTrackCache}, so a person standing in front of the camera is embedded a few times
+ * rather than on every frame.
+ */
+public class LiveRecognitionAnalyzer implements ImageAnalysis.Analyzer {
+
+    private static final String TAG = "LiveRecognition";
+    /** Faces embedded per frame; the rest of a crowd is only outlined or served from the cache */
+    private static final int MAX_FACES_PER_FRAME = 4;
+    private static final long STATS_LOG_INTERVAL_MS = 5000;
+
+    private final ImageMatcher imageMatcher;
+    private final ReferenceIndexStore referenceStore;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final FaceTrackCache<ImageMatcher.MatchResult> trackCache = new FaceTrackCache<>();
+    private volatile File imageFolder;
+
+    private long framesAnalyzed;
+    private long framesDropped;
+    private long recognitions;
+    private long totalLatencyMs;
+    private long lastTimestampNs;
+    private long frameIntervalNs = Long.MAX_VALUE;
+    private long windowStartMs;
+    private long windowFrames;
+    private double framesPerSecond;
+
+    public LiveRecognitionAnalyzer(ImageMatcher imageMatcher, ReferenceIndexStore referenceStore, Listener listener) {
+        this.imageMatcher = imageMatcher;
+        this.referenceStore = referenceStore;
+        this.listener = listener;
+    }
+
+    /**
+     * Folder whose reference index faces are matched against; null only outlines faces
+     */
+    public void setImageFolder(File imageFolder) {
+        this.imageFolder = imageFolder;
+    }
+
+    @Override
+    @OptIn(markerClass = ExperimentalGetImage.class)
+    public void analyze(@NonNull ImageProxy frame) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            countDroppedFrames(frame.getImageInfo().getTimestamp());
+            Image mediaImage = frame.getImage();
+            if (mediaImage == null) {
+                return;
+            }
+
+            int rotation = frame.getImageInfo().getRotationDegrees();
+            InputImage input = InputImage.fromMediaImage(mediaImage, rotation);
+            List<Face> detected = imageMatcher.detectFaces(input, ImageMatcher.DETECT_TRACKING);
+            int uprightWidth = YuvConverter.uprightWidth(frame.getWidth(), frame.getHeight(), rotation);
+            int uprightHeight = YuvConverter.uprightHeight(frame.getWidth(), frame.getHeight(), rotation);
+
+            File folder = imageFolder;
+            EmbeddingIndex index = folder != null ? referenceStore.get(folder) : null;
+            long now = SystemClock.elapsedRealtime();
+            List<LiveFace> faces = new ArrayList<>(detected.size());
+            int embedded = 0;
+            for (Face face : detected) {
+                Rect box = face.getBoundingBox();
+                Integer trackId = face.getTrackingId();
+                if (index == null || index.size() == 0) {
+                    faces.add(new LiveFace(box, trackId, null));
+                    continue;
+                }
+                int faceSize = Math.min(box.width(), box.height());
+                float headYaw = face.getHeadEulerAngleY();
+
+                ImageMatcher.MatchResult best = null;
+                FaceTrackCache.Track<ImageMatcher.MatchResult> cached =
+                        trackId != null ? trackCache.lookup(trackId, faceSize, headYaw, now) : null;
+                if (cached != null) {
+                    best = cached.match;
+                } else if (embedded < MAX_FACES_PER_FRAME) {
+                    float[] embedding = embed(frame, rotation, box, uprightWidth, uprightHeight);
+                    embedded++;
+                    if (embedding != null) {
+                        List<ImageMatcher.MatchResult> matches = imageMatcher.findTopMatches(embedding, index, 1);
+                        best = matches.isEmpty() ? null : matches.get(0);
+                        if (trackId != null) {
+                            trackCache.put(trackId, embedding, best, faceSize, headYaw, now);
+                        }
+                    }
+                }
+                faces.add(new LiveFace(box, trackId, best));
+            }
+            trackCache.expire(now);
+
+            long latency = SystemClock.elapsedRealtime() - start;
+            LiveStats stats = updateStats(latency, embedded);
+            mainHandler.post(() -> listener.onFrame(faces, uprightWidth, uprightHeight, stats));
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Face detection failed: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Closing the frame is what lets CameraX deliver the next one
+            frame.close();
+        }
+    }
+
+    private float[] embed(ImageProxy frame, int rotation, Rect box, int uprightWidth, int uprightHeight)
+            throws InterruptedException {
+        int left = Math.max(0, box.left);
+        int top = Math.max(0, box.top);
+        int right = Math.min(uprightWidth, box.right);
+        int bottom = Math.min(uprightHeight, box.bottom);
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+
+        int width = right - left;
+        int height = bottom - top;
+        int[] pixels = FacePreprocessor.pixelScratch(width * height);
+        ImageProxy.PlaneProxy[] planes = frame.getPlanes();
+        YuvConverter.cropToArgb(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                frame.getWidth(), frame.getHeight(), rotation, left, top, right, bottom, pixels);
+        return imageMatcher.embedFace(pixels, width, height, new float[ImageMatcher.EMBEDDING_SIZE]);
+    }
+
+    /**
+     * The camera delivers frames at a steady interval, so a gap of several intervals between
+     * two analyzed frames means the ones in between were dropped while the analyzer was busy
+     */
+    private void countDroppedFrames(long timestampNs) {
+        if (lastTimestampNs > 0 && timestampNs > lastTimestampNs) {
+            long gap = timestampNs - lastTimestampNs;
+            frameIntervalNs = Math.min(frameIntervalNs, gap);
+            framesDropped += Math.max(0, Math.round((double) gap / frameIntervalNs) - 1);
+        }
+        lastTimestampNs = timestampNs;
+    }
+
+    private LiveStats updateStats(long latencyMs, int embeddedFaces) {
+        framesAnalyzed++;
+        recognitions += embeddedFaces;
+        totalLatencyMs += latencyMs;
+        windowFrames++;
+
+        long now = SystemClock.elapsedRealtime();
+        if (windowStartMs == 0) {
+            windowStartMs = now;
+        } else if (now - windowStartMs >= STATS_LOG_INTERVAL_MS) {
+            framesPerSecond = windowFrames * 1000.0 / (now - windowStartMs);
+            windowStartMs = now;
+            windowFrames = 0;
+            Log.d(TAG, getStats().toString());
+        }
+        return getStats();
+    }
+
+    /**
+     * Counters since the analyzer was created. Only read them from the analysis thread or
+     * through {@link Listener#onFrame}.
+     */
+    public LiveStats getStats() {
+        return new LiveStats(framesAnalyzed, framesDropped, recognitions, framesPerSecond,
+                framesAnalyzed > 0 ? (double) totalLatencyMs / framesAnalyzed : 0, trackCache.getStats());
+    }
+
+    /**
+     * A face outlined in a live frame and, when it was embedded, its best reference
+     */
+    public static class LiveFace {
+        /** In upright frame coordinates */
+        public final Rect boundingBox;
+        /** Detector tracking ID, or null when the detector could not track the face */
+        public final Integer trackingId;
+        /** Null when the face was not recognized */
+        public final ImageMatcher.MatchResult match;
+
+        public LiveFace(Rect boundingBox, Integer trackingId, ImageMatcher.MatchResult match) {
+            this.boundingBox = boundingBox;
+            this.trackingId = trackingId;
+            this.match = match;
+        }
+    }
+
+    /**
+     * Throughput of the live path
+     */
+    public static class LiveStats {
+        public final long framesAnalyzed;
+        /** Frames the camera produced but skipped because the analyzer was still busy */
+        public final long framesDropped;
+        /** Faces that went through the embedder, i.e. fresh inferences */
+        public final long recognitions;
+        /** Analyzed frames per second over the last few seconds */
+        public final double framesPerSecond;
+        public final double averageLatencyMs;
+        /** Tracked faces served from the cache versus re-embedded */
+        public final FaceTrackCache.Stats trackCache;
+
+        public LiveStats(long framesAnalyzed, long framesDropped, long recognitions,
+                         double framesPerSecond, double averageLatencyMs, FaceTrackCache.Stats trackCache) {
+            this.framesAnalyzed = framesAnalyzed;
+            this.framesDropped = framesDropped;
+            this.recognitions = recognitions;
+            this.framesPerSecond = framesPerSecond;
+            this.averageLatencyMs = averageLatencyMs;
+            this.trackCache = trackCache;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f fps, %.0f ms/frame, %d analyzed, %d dropped, %d recognitions; %s",
+                    framesPerSecond, averageLatencyMs, framesAnalyzed, framesDropped, recognitions, trackCache);
+        }
+    }
+
+    /**
+     * Receives the faces of each analyzed frame on the main thread
+     */
+    public interface Listener {
+        void onFrame(List<LiveFace> faces, int frameWidth, int frameHeight, LiveStats stats);
+    }
+}
@@ -34,6 +34,9 @@ public class MainActivity extends AppCompatActivity {
             return insets;
         });
 
+        // Load the recognition models while the user logs in
+        MlEngine.getInstance(this).start();
+
         // Initialize views
         etUsername = findViewById(R.id.etUsername);
         etPassword = findViewById(R.id.etPassword);
@@ -0,0 +1,393 @@
+package com.example.imageanalysis;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs reference matching on a background thread.
+ *
+ * Each submitted probe becomes a {@link MatchJob} that can be cancelled; progress and the
+ * final result are delivered on the main thread, and nothing is delivered once cancelled.
+ */
+public class MatchJobRunner {
+
+    private static final String TAG = "MatchJobRunner";
+    private static final int TOP_K = 3;
+    private static final int INDEXING_PROGRESS_INTERVAL = 16;
+    /** Galleries at least this large are searched through their int8 copy */
+    private static final int QUANTIZED_SEARCH_MIN_REFERENCES = 10_000;
+    /** Galleries at least this large are searched through their HNSW graph */
+    private static final int GRAPH_SEARCH_MIN_REFERENCES = 50_000;
+    private static final int ACCURACY_SAMPLE_PROBES = 20;
+    /** Photos ranked before they are regrouped by identity; enough to cover the re-ranked identities */
+    private static final int IDENTITY_CANDIDATE_PHOTOS = 4 * IdentityIndex.DEFAULT_RERANK_IDENTITIES;
+
+    private final ImageMatcher imageMatcher;
+    private final ReferenceIndexStore referenceStore;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private QuantizedEmbeddings quantizedIndex;
+    private HnswIndex graphIndex;
+    private EmbeddingIndex graphSyncedWith;
+    private volatile File identityFolder;
+    private IdentityIndex identityIndex;
+    private EmbeddingIndex identitiesBuiltFor;
+    private File identitiesFolder;
+    private long identitySignature;
+
+    public MatchJobRunner(ImageMatcher imageMatcher, ReferenceIndexStore referenceStore) {
+        this.imageMatcher = imageMatcher;
+        this.referenceStore = referenceStore;
+    }
+
+    /**
+     * Folder of JSON records whose {@code id} field groups reference photos into identities.
+     * When set, each search's photo ranking is regrouped per identity; null turns this off.
+     */
+    public void setIdentityFolder(File identityFolder) {
+        this.identityFolder = identityFolder;
+    }
+
+    /**
+     * Match the probe against the reference images in the given folder
+     */
+    public MatchJob submit(Bitmap probe, File imageFolder, MatchCallback callback) {
+        MatchJob job = new MatchJob();
+        job.future = executor.submit(() -> run(job, probe, imageFolder, callback));
+        return job;
+    }
+
+    /**
+     * Match every face in the probe against the reference images in the given folder
+     */
+    public MatchJob submitAllFaces(Bitmap probe, File imageFolder, FaceMatchCallback callback) {
+        MatchJob job = new MatchJob();
+        job.future = executor.submit(() -> runAllFaces(job, probe, imageFolder, callback));
+        return job;
+    }
+
+    private void run(MatchJob job, Bitmap probe, File imageFolder, MatchCallback callback) {
+        try {
+            EmbeddingIndex index = prepareIndex(job, imageFolder, callback::onProgress);
+            if (index == null) {
+                deliver(job, () -> callback.onComplete(Collections.emptyList(), 0));
+                return;
+            }
+
+            job.throwIfCancelled();
+            float[] probeEmbedding = imageMatcher.getEmbedding(probe);
+            Log.d(TAG, "Probe detection: " + imageMatcher.getDetectionStats());
+            if (probeEmbedding == null) {
+                deliver(job, () -> callback.onError("No face detected in the captured image."));
+                return;
+            }
+
+            List<ImageMatcher.MatchResult> matches = search(job, probeEmbedding, index, identities(index),
+                    callback::onProgress);
+            job.throwIfCancelled();
+            deliver(job, () -> callback.onComplete(matches, index.size()));
+
+        } catch (CancellationException e) {
+            Log.d(TAG, "Match job cancelled");
+        } catch (Exception e) {
+            Log.e(TAG, "Match job failed: " + e.getMessage(), e);
+            deliver(job, () -> callback.onError(e.getMessage()));
+        }
+    }
+
+    private void runAllFaces(MatchJob job, Bitmap probe, File imageFolder, FaceMatchCallback callback) {
+        try {
+            EmbeddingIndex index = prepareIndex(job, imageFolder, callback::onProgress);
+            if (index == null) {
+                deliver(job, () -> callback.onComplete(Collections.emptyList(), 0));
+                return;
+            }
+
+            job.throwIfCancelled();
+            // One detector call and one batched embedding run for the whole frame
+            List<ImageMatcher.FaceMatch> faces = imageMatcher.embedAllFaces(probe);
+            Log.d(TAG, "Probe detection: " + imageMatcher.getDetectionStats());
+            if (faces.isEmpty()) {
+                deliver(job, () -> callback.onError("No face detected in the captured image."));
+                return;
+            }
+
+            job.throwIfCancelled();
+            IdentityIndex identities = identities(index);
+            if (index.size() >= QUANTIZED_SEARCH_MIN_REFERENCES) {
+                for (ImageMatcher.FaceMatch face : faces) {
+                    face.matches = search(job, face.embedding, index, identities, callback::onProgress);
+                }
+            } else {
+                float[][] probes = new float[faces.size()][];
+                for (int i = 0; i < probes.length; i++) {
+                    probes[i] = faces.get(i).embedding;
+                }
+                List<List<ImageMatcher.MatchResult>> rankings = imageMatcher.findTopMatches(probes, index,
+                        identities != null ? IDENTITY_CANDIDATE_PHOTOS : TOP_K);
+                for (int i = 0; i < probes.length; i++) {
+                    faces.get(i).matches = identities != null
+                            ? imageMatcher.rankIdentities(probes[i], rankings.get(i), identities, TOP_K)
+                            : rankings.get(i);
+                }
+            }
+            job.throwIfCancelled();
+            deliver(job, () -> callback.onComplete(faces, index.size()));
+
+        } catch (CancellationException e) {
+            Log.d(TAG, "Match job cancelled");
+        } catch (Exception e) {
+            Log.e(TAG, "Match job failed: " + e.getMessage(), e);
+            deliver(job, () -> callback.onError(e.getMessage()));
+        }
+    }
+
+    /**
+     * The folder's index. Adds, edits and deletes reach it through the store as they happen,
+     * so the folder is only listed and synced the first time, or after a rescan request.
+     *
+     * @return the index, or null when the folder holds no reference images
+     */
+    private EmbeddingIndex prepareIndex(MatchJob job, File imageFolder, ProgressSink progress) {
+        if (!referenceStore.needsSync(imageFolder)) {
+            EmbeddingIndex index = referenceStore.get(imageFolder);
+            return index.size() > 0 ? index : null;
+        }
+
+        File[] imageFiles = imageFolder.listFiles((dir, name) -> name.endsWith(".jpg") || name.endsWith(".png"));
+        if (imageFiles == null || imageFiles.length == 0) {
+            return null;
+        }
+
+        EnrollmentPipeline pipeline = EnrollmentPipeline.withDefaults(imageMatcher);
+        pipeline.setProgressListener((completed, total, imagesPerSecond) -> {
+            job.throwIfCancelled();
+            if (completed % INDEXING_PROGRESS_INTERVAL != 0 && completed != total) return;
+            deliver(job, () -> progress.onProgress(new MatchProgress(
+                    MatchProgress.STAGE_INDEXING, completed, total, null)));
+        });
+        try {
+            // Only new or changed reference images go through the enrollment pipeline
+            return referenceStore.sync(imageFolder, imageFiles, pipeline,
+                    (processed, total) -> job.throwIfCancelled());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to update reference index: " + e.getMessage(), e);
+            return referenceStore.get(imageFolder);
+        }
+    }
+
+    /**
+     * Rank the references for one probe, picking exact, int8 or graph search by gallery size.
+     * When identities are known, the photo ranking is then regrouped per identity.
+     */
+    private List<ImageMatcher.MatchResult> search(MatchJob job, float[] probeEmbedding, EmbeddingIndex index,
+                                                  IdentityIndex identities, ProgressSink progress) throws IOException {
+        int candidates = identities != null ? IDENTITY_CANDIDATE_PHOTOS : TOP_K;
+        List<ImageMatcher.MatchResult> photos;
+        if (index.size() >= GRAPH_SEARCH_MIN_REFERENCES) {
+            photos = imageMatcher.findTopMatches(probeEmbedding, graph(index), index, candidates);
+        } else if (index.size() >= QUANTIZED_SEARCH_MIN_REFERENCES) {
+            photos = imageMatcher.findTopMatches(probeEmbedding, quantized(index), candidates);
+        } else {
+            photos = imageMatcher.findTopMatches(probeEmbedding, index, candidates, identities,
+                    (scanned, total, bestSoFar) -> {
+                        deliver(job, () -> progress.onProgress(new MatchProgress(
+                                MatchProgress.STAGE_SCANNING, scanned, total, bestSoFar)));
+                        return !job.isCancelled();
+                    });
+        }
+        return identities != null ? imageMatcher.rankIdentities(probeEmbedding, photos, identities, TOP_K) : photos;
+    }
+
+    /**
+     * Identity templates for the index. The JSON records are only read again when the index,
+     * the folder's modification time or the store's record generation changed, so a match
+     * normally costs one stat of the folder here.
+     *
+     * @return null when no identity folder is set or it holds no records
+     */
+    private IdentityIndex identities(EmbeddingIndex index) {
+        File folder = identityFolder;
+        if (folder == null) {
+            return null;
+        }
+        long signature = 31 * folder.lastModified() + referenceStore.getRecordsGeneration();
+        if (identitiesBuiltFor == index && folder.equals(identitiesFolder) && identitySignature == signature) {
+            return identityIndex;
+        }
+
+        File[] jsonFiles = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".json"));
+        Map<String, String> identityByBaseName = new HashMap<>();
+        Gson gson = new Gson();
+        for (File jsonFile : jsonFiles != null ? jsonFiles : new File[0]) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(jsonFile), StandardCharsets.UTF_8)) {
+                JsonObject data = gson.fromJson(reader, JsonObject.class);
+                if (data != null && data.has("id")) {
+                    String name = jsonFile.getName();
+                    identityByBaseName.put(name.substring(0, name.lastIndexOf('.')), data.get("id").getAsString());
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Skipping unreadable record " + jsonFile.getName() + ": " + e.getMessage());
+            }
+        }
+        identityIndex = identityByBaseName.isEmpty() ? null : IdentityIndex.build(index, identityByBaseName);
+        identitiesBuiltFor = index;
+        identitiesFolder = folder;
+        identitySignature = signature;
+        if (identityIndex != null) {
+            Log.d(TAG, "Grouped " + index.size() + " references into " + identityIndex.size() + " identities");
+        }
+        return identityIndex;
+    }
+
+    /**
+     * Int8 copy of the index, rebuilt whenever a sync produced a new index. Each rebuild logs
+     * how closely it reproduces the float ranking, using sampled references as probes.
+     */
+    private QuantizedEmbeddings quantized(EmbeddingIndex index) {
+        if (quantizedIndex != null && quantizedIndex.getIndex() == index) {
+            return quantizedIndex;
+        }
+        quantizedIndex = QuantizedEmbeddings.build(index);
+        Log.d(TAG, "Quantized " + index.size() + " references into " + quantizedIndex.getSizeBytes()
+                + " bytes; " + quantizedIndex.evaluate(sampleProbes(index), TOP_K, QuantizedEmbeddings.DEFAULT_MARGIN));
+        return quantizedIndex;
+    }
+
+    /**
+     * Evenly spaced reference vectors, used as probes when checking approximate search
+     */
+    private static List<float[]> sampleProbes(EmbeddingIndex index) {
+        List<float[]> probes = new ArrayList<>();
+        int step = Math.max(1, index.size() / ACCURACY_SAMPLE_PROBES);
+        for (int row = 0; row < index.size() && probes.size() < ACCURACY_SAMPLE_PROBES; row += step) {
+            if (!index.getEntry(row).hasEmbedding) continue;
+            float[] probe = new float[index.getDimension()];
+            index.getVector(row, probe);
+            probes.add(probe);
+        }
+        return probes;
+    }
+
+    /**
+     * HNSW graph kept next to the index file. It is loaded on first use and updated
+     * incrementally; each update logs recall@K against exact search on sampled references.
+     */
+    private HnswIndex graph(EmbeddingIndex index) throws IOException {
+        File graphFile = new File(index.getFile().getParentFile(), HnswIndex.FILE_NAME);
+        if (graphIndex == null || !graphIndex.getFile().equals(graphFile)) {
+            graphIndex = HnswIndex.open(graphFile, index.getDimension(), HnswIndex.Params.defaults());
+        }
+        if (graphSyncedWith != index && graphIndex.syncWith(index)) {
+            Log.d(TAG, String.format(Locale.US, "HNSW graph over %d references: recall@%d %.3f",
+                    graphIndex.size(), TOP_K, graphIndex.measureRecall(sampleProbes(index), TOP_K)));
+        }
+        graphSyncedWith = index;
+        return graphIndex;
+    }
+
+    private void deliver(MatchJob job, Runnable action) {
+        mainHandler.post(() -> {
+            if (!job.isCancelled()) {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Stop accepting work and interrupt whatever is running
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Handle for a submitted match
+     */
+    public static class MatchJob {
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private Future<?> future;
+
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true) && future != null) {
+                future.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        private void throwIfCancelled() {
+            if (cancelled.get()) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of a running match
+     */
+    public static class MatchProgress {
+        public static final int STAGE_INDEXING = 0;
+        public static final int STAGE_SCANNING = 1;
+
+        public final int stage;
+        public final int scanned;
+        public final int total;
+        public final ImageMatcher.MatchResult bestSoFar;
+
+        public MatchProgress(int stage, int scanned, int total, ImageMatcher.MatchResult bestSoFar) {
+            this.stage = stage;
+            this.scanned = scanned;
+            this.total = total;
+            this.bestSoFar = bestSoFar;
+        }
+    }
+
+    private interface ProgressSink {
+        void onProgress(MatchProgress progress);
+    }
+
+    /**
+     * Callback interface for match jobs; every method runs on the main thread
+     */
+    public interface MatchCallback {
+        void onProgress(MatchProgress progress);
+        void onComplete(List<ImageMatcher.MatchResult> matches, int referenceCount);
+        void onError(String error);
+    }
+
+    /**
+     * Callback interface for all-faces match jobs; every method runs on the main thread
+     */
+    public interface FaceMatchCallback {
+        void onProgress(MatchProgress progress);
+        void onComplete(List<ImageMatcher.FaceMatch> faces, int referenceCount);
+        void onError(String error);
+    }
+}
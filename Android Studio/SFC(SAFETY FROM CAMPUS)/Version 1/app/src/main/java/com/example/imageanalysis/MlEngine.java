@@ -0,0 +1,112 @@
+package com.example.imageanalysis;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Process-wide owner of the ML models.
+ *
+ * Memory-mapping the embedding model, creating the interpreters and loading the ML Kit
+ * detector and labeler models takes long enough to stall a screen, so it happens once per
+ * process on a background thread. Loading starts on the login screen and finishes with a
+ * warm-up inference, so by the time the camera screen asks, the models are usually ready and
+ * the first match costs about as much as any later one. Screens come and go; the engine stays.
+ */
+public class MlEngine {
+
+    private static final String TAG = "MlEngine";
+
+    private static MlEngine instance;
+
+    private final Context appContext;
+    private SettableFuture<MlEngine> ready = SettableFuture.create();
+    private boolean started;
+    private volatile ImageMatcher imageMatcher;
+    private volatile AdvancedImageAnalyzer advancedAnalyzer;
+
+    private MlEngine(Context context) {
+        this.appContext = context.getApplicationContext();
+    }
+
+    public static synchronized MlEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new MlEngine(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Start loading the models unless that already happened or is in progress; returns
+     * immediately. After a failed load this tries again.
+     */
+    public synchronized MlEngine start() {
+        if (!started) {
+            started = true;
+            SettableFuture<MlEngine> attempt = ready;
+            Thread loader = new Thread(() -> load(attempt), TAG);
+            loader.start();
+        }
+        return this;
+    }
+
+    /**
+     * Completes with this engine once every model is loaded and warmed up, or fails with the
+     * reason the models could not be loaded. Starts loading if nobody did yet, and again if the
+     * last attempt failed.
+     */
+    public synchronized ListenableFuture<MlEngine> whenReady() {
+        start();
+        return ready;
+    }
+
+    public boolean isReady() {
+        return imageMatcher != null;
+    }
+
+    /**
+     * Face detection and embedding; only valid once {@link #whenReady()} completed
+     */
+    public ImageMatcher getImageMatcher() {
+        return imageMatcher;
+    }
+
+    /**
+     * Scene labeling; only valid once {@link #whenReady()} completed
+     */
+    public AdvancedImageAnalyzer getAdvancedAnalyzer() {
+        return advancedAnalyzer;
+    }
+
+    private void load(SettableFuture<MlEngine> attempt) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            ImageMatcher matcher = new ImageMatcher(appContext);
+            AdvancedImageAnalyzer analyzer = new AdvancedImageAnalyzer();
+            long loaded = SystemClock.elapsedRealtime();
+            matcher.warmUp();
+            analyzer.warmUp();
+
+            imageMatcher = matcher;
+            advancedAnalyzer = analyzer;
+            Log.d(TAG, "Models loaded in " + (loaded - start) + " ms, warmed up in "
+                    + (SystemClock.elapsedRealtime() - loaded) + " ms");
+            attempt.set(this);
+
+            // Benchmarking the runtime settings now can no longer slow the warm-up or the first match
+            matcher.tuneInBackground(appContext);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            Log.e(TAG, "Failed to load models: " + e.getMessage(), e);
+            synchronized (this) {
+                // Whoever asks next gets a fresh attempt instead of this failure forever
+                started = false;
+                ready = SettableFuture.create();
+            }
+            attempt.setException(e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.imageanalysis;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link FaceLocator} backed by the ML Kit detectors of an {@link ImageMatcher}
+ */
+public class MlKitFaceDetector implements FaceLocator {
+
+    private final ImageMatcher imageMatcher;
+    private final int mode;
+
+    /**
+     * @param mode {@link ImageMatcher#DETECT_TIERED}, {@link ImageMatcher#DETECT_ACCURATE} or
+     *             {@link ImageMatcher#DETECT_TRACKING}
+     */
+    public MlKitFaceDetector(ImageMatcher imageMatcher, int mode) {
+        this.imageMatcher = imageMatcher;
+        this.mode = mode;
+    }
+
+    @Override
+    public List<FaceBox> locate(int[] pixels, int width, int height) throws ExecutionException, InterruptedException {
+        Bitmap bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        try {
+            List<FaceBox> boxes = new ArrayList<>();
+            for (Rect box : imageMatcher.detectFaces(bitmap, mode)) {
+                boxes.add(new FaceBox(box.left, box.top, box.right, box.bottom));
+            }
+            return boxes;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.imageanalysis;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide owner of the reference embedding index.
+ *
+ * Screens that add, edit or delete references report it here. The change is embedded on a
+ * background thread and journaled into the index, so a new person is searchable as soon as
+ * their face is embedded and matching never has to rediscover the change by rescanning the
+ * folder. A folder is synced with its files only the first time its index is opened in this
+ * process, for changes made while the app was not running, or after {@link #requestRescan()}.
+ * Folder syncs run under the same lock, so they never overwrite a concurrent update.
+ * Folding the journal into a fresh index file also happens here, on the store's own thread,
+ * once enough changes piled up; a match job never pays for it.
+ */
+public class ReferenceIndexStore {
+
+    private static final String TAG = "ReferenceIndexStore";
+
+    private static ReferenceIndexStore instance;
+
+    private final Context appContext;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicLong recordsGeneration = new AtomicLong();
+    private EmbeddingIndex index;
+    /** Folder whose index was last synced with its files; null until then or after a rescan request */
+    private File syncedFolder;
+
+    private ReferenceIndexStore(Context context) {
+        this.appContext = context.getApplicationContext();
+    }
+
+    public static synchronized ReferenceIndexStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReferenceIndexStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Current index for the folder, opening it when the folder changed
+     */
+    public synchronized EmbeddingIndex get(File imageFolder) {
+        File indexFile = new File(imageFolder, EmbeddingIndex.FILE_NAME);
+        if (index == null || !index.getFile().equals(indexFile)) {
+            index = EmbeddingIndex.open(indexFile, ImageMatcher.EMBEDDING_SIZE);
+        }
+        return index;
+    }
+
+    /**
+     * True when the folder's index has not been synced with its files since it was opened or
+     * since a rescan was requested. Otherwise the store's own updates keep it current.
+     */
+    public synchronized boolean needsSync(File imageFolder) {
+        return !imageFolder.equals(syncedFolder);
+    }
+
+    /**
+     * Sync the index with its folder again before the next match, for files that were added
+     * or removed behind the app's back
+     */
+    public synchronized void requestRescan() {
+        syncedFolder = null;
+    }
+
+    /**
+     * Bring the folder's index in line with its files; see {@link EmbeddingIndex#sync}
+     */
+    public synchronized EmbeddingIndex sync(File imageFolder, File[] imageFiles, EmbeddingIndex.BatchEmbedder embedder,
+                                            EmbeddingIndex.ProgressListener listener) throws IOException {
+        index = get(imageFolder).sync(imageFiles, embedder, listener);
+        syncedFolder = imageFolder;
+        if (index.needsCompaction()) {
+            compactLater();
+        }
+        return index;
+    }
+
+    /**
+     * Embed a new or replaced reference image and add it to its folder's index
+     *
+     * @param bitmap the decoded image when the caller still has it, otherwise null
+     */
+    public Future<?> enroll(File imageFile, Bitmap bitmap) {
+        return executor.submit(() -> {
+            try {
+                long contentHash = EmbeddingIndex.contentHash(imageFile);
+                float[] embedding = embed(imageFile, bitmap);
+                synchronized (this) {
+                    index = get(imageFile.getParentFile()).put(imageFile.getName(), contentHash,
+                            imageFile.lastModified(), imageFile.length(), embedding);
+                }
+                Log.d(TAG, "Enrolled " + imageFile.getName() + (embedding != null ? "" : " (no face)"));
+                compactIfNeeded();
+            } catch (IOException | InterruptedException e) {
+                Log.e(TAG, "Failed to enroll " + imageFile.getName() + ": " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Re-embed a reference only when its image content changed since it was indexed
+     */
+    public Future<?> refresh(File imageFile) {
+        return executor.submit(() -> {
+            try {
+                EmbeddingIndex current = get(imageFile.getParentFile());
+                int row = current.findRow(imageFile.getName());
+                if (row >= 0 && current.getEntry(row).contentHash == EmbeddingIndex.contentHash(imageFile)) {
+                    return;
+                }
+                enroll(imageFile, null);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to check " + imageFile.getName() + ": " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Tombstone a deleted reference image in its folder's index
+     */
+    public Future<?> remove(File imageFile) {
+        return executor.submit(() -> {
+            try {
+                synchronized (this) {
+                    index = get(imageFile.getParentFile()).remove(imageFile.getName());
+                }
+                compactIfNeeded();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to remove " + imageFile.getName() + ": " + e.getMessage(), e);
+            }
+        });
+    }
+
+    private void compactLater() {
+        executor.execute(() -> {
+            try {
+                compactIfNeeded();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to compact reference index: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Fold the journal into a fresh index file when {@link EmbeddingIndex#needsCompaction()}
+     * says so. Holds the lock throughout, so no update lands in the journal being dropped.
+     */
+    private synchronized void compactIfNeeded() throws IOException {
+        if (index != null && index.needsCompaction()) {
+            long start = System.currentTimeMillis();
+            index = index.compact();
+            Log.d(TAG, "Compacted " + index.size() + " references in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Report that a JSON record was written or deleted in place, which the folder's
+     * modification time does not always show
+     */
+    public void recordsChanged() {
+        recordsGeneration.incrementAndGet();
+    }
+
+    /**
+     * Changes whenever {@link #recordsChanged()} is called; data derived from the JSON records
+     * is stale once this differs from the value it was built at
+     */
+    public long getRecordsGeneration() {
+        return recordsGeneration.get();
+    }
+
+    private float[] embed(File imageFile, Bitmap bitmap) throws IOException, InterruptedException {
+        Bitmap source = bitmap != null ? bitmap : BitmapDecoder.decodeFile(imageFile, BitmapDecoder.ANALYSIS_LONG_EDGE);
+        if (source == null) {
+            return null;
+        }
+        try {
+            // Updates are already off the main thread, so waiting for the models here is fine
+            ImageMatcher matcher = MlEngine.getInstance(appContext).whenReady().get().getImageMatcher();
+            Rect boundingBox = matcher.detectFace(source, ImageMatcher.DETECT_ACCURATE);
+            return boundingBox != null ? matcher.embedFace(source, boundingBox) : null;
+        } catch (ExecutionException e) {
+            throw new IOException(e);
+        } finally {
+            if (source != bitmap) source.recycle();
+        }
+    }
+}
@@ -3,7 +3,6 @@ package com.example.imageanalysis;
 import android.app.Dialog;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -276,7 +275,7 @@ public class StoreActivity extends AppCompatActivity {
 
         // Load image
         if (item.hasImage && item.imageFile != null) {
-            Bitmap bitmap = BitmapFactory.decodeFile(item.imageFile.getAbsolutePath());
+            Bitmap bitmap = BitmapDecoder.decodeFile(item.imageFile, BitmapDecoder.DISPLAY_LONG_EDGE);
             if (bitmap != null) {
                 ivPreview.setImageBitmap(bitmap);
             }
@@ -391,6 +390,12 @@ public class StoreActivity extends AppCompatActivity {
                     java.io.FileOutputStream fos = new java.io.FileOutputStream(item.jsonFile);
                     fos.write(jsonString.getBytes(StandardCharsets.UTF_8));
                     fos.close();
+                    ReferenceIndexStore.getInstance(this).recordsChanged();
+
+                    // Re-embed only if the image itself changed since it was indexed
+                    if (item.hasImage && item.imageFile != null && item.imageFile.exists()) {
+                        ReferenceIndexStore.getInstance(this).refresh(item.imageFile);
+                    }
 
                     runOnUiThread(() -> {
                         Toast.makeText(this, "✓ Updated: " + item.baseName, Toast.LENGTH_SHORT).show();
@@ -425,6 +430,7 @@ public class StoreActivity extends AppCompatActivity {
                         // Delete image file
                         if (item.hasImage && item.imageFile != null && item.imageFile.exists()) {
                             if (item.imageFile.delete()) {
+                                ReferenceIndexStore.getInstance(this).remove(item.imageFile);
                                 result.append("✓ Image deleted\n");
                             } else {
                                 result.append("✗ Failed to delete image\n");
@@ -435,6 +441,7 @@ public class StoreActivity extends AppCompatActivity {
                         // Delete JSON file
                         if (item.hasData && item.jsonFile != null && item.jsonFile.exists()) {
                             if (item.jsonFile.delete()) {
+                                ReferenceIndexStore.getInstance(this).recordsChanged();
                                 result.append("✓ Data deleted\n");
                             } else {
                                 result.append("✗ Failed to delete data\n");
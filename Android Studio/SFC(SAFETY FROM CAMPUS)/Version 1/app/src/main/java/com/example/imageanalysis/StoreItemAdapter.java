@@ -1,7 +1,6 @@
 package com.example.imageanalysis;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -137,7 +136,7 @@ public class StoreItemAdapter extends RecyclerView.Adapter<StoreItemAdapter.View
             // Load thumbnail
             if (item.hasImage && item.imageFile != null) {
                 try {
-                    Bitmap thumbnail = BitmapFactory.decodeFile(item.imageFile.getAbsolutePath());
+                    Bitmap thumbnail = BitmapDecoder.decodeFile(item.imageFile, BitmapDecoder.THUMBNAIL_LONG_EDGE);
                     if (thumbnail != null) {
                         ivThumbnail.setImageBitmap(thumbnail);
                     } else {
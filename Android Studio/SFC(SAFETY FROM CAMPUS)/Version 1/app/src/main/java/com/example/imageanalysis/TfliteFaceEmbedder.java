@@ -0,0 +1,23 @@
+package com.example.imageanalysis;
+
+/**
+ * {@link FaceEmbedder} backed by the MobileFaceNet interpreters of an {@link ImageMatcher}
+ */
+public class TfliteFaceEmbedder implements FaceEmbedder {
+
+    private final ImageMatcher imageMatcher;
+
+    public TfliteFaceEmbedder(ImageMatcher imageMatcher) {
+        this.imageMatcher = imageMatcher;
+    }
+
+    @Override
+    public int getDimension() {
+        return ImageMatcher.EMBEDDING_SIZE;
+    }
+
+    @Override
+    public float[] embed(int[] pixels, int width, int height) throws InterruptedException {
+        return imageMatcher.embedFace(pixels, width, height, new float[ImageMatcher.EMBEDDING_SIZE]);
+    }
+}
@@ -0,0 +1,24 @@
+// JMH benchmarks for the matching-core hot loops; run with ./gradlew :matching-benchmarks:jmh
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    implementation(project(":matching-core"))
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // Allocation rate next to throughput, so an optimization that trades speed for garbage shows up
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+}
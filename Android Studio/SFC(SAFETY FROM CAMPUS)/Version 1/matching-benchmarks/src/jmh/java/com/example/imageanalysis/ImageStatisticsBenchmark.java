@@ -0,0 +1,44 @@
+package com.example.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Brightness and dominant colours of an analysis-size photo, sampled the way
+ * AdvancedImageAnalyzer samples them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class ImageStatisticsBenchmark {
+
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1200;
+
+    private int[] pixels;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    public double averageBrightness() {
+        return ImageStatistics.averageBrightness(pixels, WIDTH, HEIGHT, 10, 10);
+    }
+
+    @Benchmark
+    public List<String> dominantColors() {
+        return ImageStatistics.dominantColors(pixels, WIDTH, HEIGHT, 20, 20, 3);
+    }
+}
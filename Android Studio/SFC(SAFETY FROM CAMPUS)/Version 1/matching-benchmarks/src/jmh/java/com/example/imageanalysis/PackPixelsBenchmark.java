@@ -0,0 +1,39 @@
+package com.example.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Turning a 112x112 face crop into the model's float input
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class PackPixelsBenchmark {
+
+    private int[] pixels;
+    private ByteBuffer input;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        pixels = new int[FacePreprocessor.INPUT_PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        input = ByteBuffer.allocateDirect(FacePreprocessor.INPUT_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    @Benchmark
+    public ByteBuffer packPixels() {
+        FacePreprocessor.packPixels(pixels, FacePreprocessor.INPUT_PIXELS, input);
+        return input;
+    }
+}
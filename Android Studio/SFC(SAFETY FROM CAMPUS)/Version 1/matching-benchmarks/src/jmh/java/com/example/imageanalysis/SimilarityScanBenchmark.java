@@ -0,0 +1,66 @@
+package com.example.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * One probe against every reference: the flat normalized matrix scan the matcher uses, next to
+ * per-reference cosine similarity over separate arrays, which is how matching started out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class SimilarityScanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int references;
+
+    private float[][] vectors;
+    private EmbeddingMatrix matrix;
+    private float[] probe;
+    private float[] unitProbe;
+    private float[] scores;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int dimension = 192;
+        vectors = new float[references][];
+        matrix = new EmbeddingMatrix(dimension, references);
+        for (int row = 0; row < references; row++) {
+            vectors[row] = randomVector(random, dimension);
+            matrix.setRow(row, vectors[row]);
+        }
+        probe = randomVector(random, dimension);
+        unitProbe = EmbeddingMatrix.normalize(probe);
+        scores = new float[references];
+    }
+
+    @Benchmark
+    public float[] matrixScan() {
+        matrix.scan(unitProbe, 0, references, scores);
+        return scores;
+    }
+
+    @Benchmark
+    public void cosinePerReference(Blackhole blackhole) {
+        for (float[] vector : vectors) {
+            blackhole.consume(EmbeddingMatrix.cosine(probe, vector));
+        }
+    }
+
+    static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picking the best K out of a full scan's scores
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class TopKBenchmark {
+
+    @Param({"100000"})
+    public int references;
+
+    @Param({"1", "5", "50"})
+    public int k;
+
+    private float[] scores;
+    private TopK topK;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        scores = new float[references];
+        for (int i = 0; i < references; i++) {
+            scores[i] = random.nextFloat() * 2 - 1;
+        }
+        topK = new TopK(k);
+    }
+
+    /**
+     * Offers only; the heap is reused, as in a search loop
+     */
+    @Benchmark
+    public double select() {
+        topK.clear();
+        for (int row = 0; row < scores.length; row++) {
+            topK.offer(row, scores[row]);
+        }
+        return topK.threshold();
+    }
+
+    /**
+     * Offers and the sorted result list a search returns
+     */
+    @Benchmark
+    public List<SearchHit> selectAndSort() {
+        TopK best = new TopK(k);
+        for (int row = 0; row < scores.length; row++) {
+            best.offer(row, scores[row]);
+        }
+        return best.toSortedList();
+    }
+}
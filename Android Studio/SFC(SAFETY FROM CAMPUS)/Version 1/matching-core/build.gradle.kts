@@ -0,0 +1,13 @@
+// Platform-independent matching code: builds and tests on a plain JVM, no device needed
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
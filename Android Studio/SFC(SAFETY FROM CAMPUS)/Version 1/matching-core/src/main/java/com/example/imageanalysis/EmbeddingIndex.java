@@ -0,0 +1,611 @@
+package com.example.imageanalysis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent on-disk index of reference face embeddings.
+ *
+ * The file lives next to the reference images and is memory-mapped on open, so a search
+ * only has to embed the probe and scan these vectors instead of re-decoding the gallery.
+ * Layout: header (magic, version, dimension, count), count * dimension little-endian floats,
+ * then one metadata record per row.
+ *
+ * Changes ({@link #put}, {@link #remove} and whatever {@link #sync} finds) are appended to a
+ * journal file next to the index instead of rewriting it: new vectors go to an in-memory tail
+ * and replaced or removed rows become tombstones without an embedding. Once enough of the
+ * index is journaled, {@link #needsCompaction()} turns true and the owner calls
+ * {@link #compact()} off the search path to fold the journal into a fresh index file.
+ */
+public class EmbeddingIndex {
+
+    public static final String FILE_NAME = ".sfc_embeddings.idx";
+
+    private static final int MAGIC = 0x53464345; // "SFCE"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final byte JOURNAL_PUT = 1;
+    private static final byte JOURNAL_REMOVE = 2;
+    /** Journaled rows and tombstones below this count never trigger a compaction */
+    private static final int COMPACTION_MIN_CHANGES = 64;
+    /** Compact once journaled rows and tombstones reach this fraction of all rows */
+    private static final int COMPACTION_DIVISOR = 4;
+
+    private final File file;
+    private final int dimension;
+    private final List<Entry> entries;
+    private final FloatBuffer vectors;
+    private final int mappedRows;
+    private final float[] tail;
+    private final int tombstones;
+    private EmbeddingMatrix matrix;
+    private Map<String, Integer> rowsByName;
+
+    private EmbeddingIndex(File file, int dimension, List<Entry> entries, FloatBuffer vectors, float[] tail) {
+        this.file = file;
+        this.dimension = dimension;
+        this.entries = Collections.unmodifiableList(entries);
+        this.vectors = vectors;
+        this.tail = tail;
+        this.mappedRows = entries.size() - tail.length / dimension;
+        int tombstones = 0;
+        for (Entry entry : entries) {
+            if (isTombstone(entry)) tombstones++;
+        }
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Open the index stored in the given file. A missing, corrupt or incompatible file
+     * yields an empty index that the next {@link #sync} fills in again.
+     */
+    public static EmbeddingIndex open(File file, int dimension) {
+        EmbeddingIndex index = null;
+        if (file.exists()) {
+            try {
+                index = map(file, dimension);
+            } catch (IOException | RuntimeException e) {
+                // Fall through and start over; the next compaction rewrites the file
+            }
+        }
+        if (index == null) {
+            index = new EmbeddingIndex(file, dimension, new ArrayList<>(), FloatBuffer.allocate(0), new float[0]);
+        }
+        try {
+            return index.replayJournal();
+        } catch (IOException | RuntimeException e) {
+            // An unreadable journal only loses updates the next sync finds again
+            return index;
+        }
+    }
+
+    private static EmbeddingIndex map(File file, int dimension) throws IOException {
+        ByteBuffer buffer;
+        try (FileInputStream inputStream = new FileInputStream(file);
+             FileChannel channel = inputStream.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != dimension) {
+            throw new IOException("Incompatible embedding index: " + file.getName());
+        }
+        int count = buffer.getInt();
+
+        int vectorBytes = count * dimension * 4;
+        ByteBuffer vectorRegion = buffer.duplicate();
+        vectorRegion.position(HEADER_BYTES);
+        vectorRegion.limit(HEADER_BYTES + vectorBytes);
+        FloatBuffer vectors = vectorRegion.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+        buffer.position(HEADER_BYTES + vectorBytes);
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String fileName = readString(buffer);
+            long contentHash = buffer.getLong();
+            long lastModified = buffer.getLong();
+            long length = buffer.getLong();
+            boolean hasEmbedding = buffer.get() != 0;
+            entries.add(new Entry(fileName, contentHash, lastModified, length, hasEmbedding));
+        }
+        return new EmbeddingIndex(file, dimension, entries, vectors, new float[0]);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry getEntry(int row) {
+        return entries.get(row);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Row of the reference with the given file name, or -1 when it is not indexed
+     */
+    public synchronized int findRow(String fileName) {
+        if (rowsByName == null) {
+            rowsByName = new HashMap<>();
+            for (int i = 0; i < entries.size(); i++) {
+                rowsByName.put(entries.get(i).fileName, i);
+            }
+        }
+        Integer row = rowsByName.get(fileName);
+        return row != null ? row : -1;
+    }
+
+    /**
+     * Copy the embedding stored at the given row into {@code out}
+     */
+    public float[] getVector(int row, float[] out) {
+        copyRow(row, out, 0);
+        return out;
+    }
+
+    /**
+     * Normalized in-memory copy of all vectors, built on first use. An index never changes
+     * after it is opened, so the copy stays valid for its lifetime.
+     */
+    public synchronized EmbeddingMatrix matrix() {
+        if (matrix == null) {
+            matrix = EmbeddingMatrix.fromIndex(this);
+        }
+        return matrix;
+    }
+
+    /**
+     * Bring the index in line with the given reference images.
+     *
+     * Files whose name, size and modification time are unchanged keep their stored vector.
+     * Otherwise the content hash decides whether the vector can be reused (touched or renamed
+     * copies) or the image has to go through the embedder again. Whatever changed is journaled
+     * in one append, like {@link #put} and {@link #remove}; the index file is never rewritten
+     * here.
+     *
+     * @return this index when nothing changed, otherwise the updated index
+     */
+    public EmbeddingIndex sync(File[] imageFiles, BatchEmbedder embedder) throws IOException {
+        return sync(imageFiles, embedder, null);
+    }
+
+    /**
+     * Same as {@link #sync(File[], BatchEmbedder)} for an embedder that takes one image at a time
+     */
+    public EmbeddingIndex syncEach(File[] imageFiles, Embedder embedder, ProgressListener listener) throws IOException {
+        return sync(imageFiles, (List<File> files) -> {
+            float[][] embeddings = new float[files.size()][];
+            for (int i = 0; i < files.size(); i++) {
+                embeddings[i] = embedder.embed(files.get(i));
+            }
+            return embeddings;
+        }, listener);
+    }
+
+    /**
+     * Same as {@link #sync(File[], BatchEmbedder)}, reporting each checked file to the
+     * listener. Every image that needs embedding goes to the batch embedder in one call, so it
+     * can process them in parallel.
+     */
+    public EmbeddingIndex sync(File[] imageFiles, BatchEmbedder embedder, ProgressListener listener) throws IOException {
+        File[] sorted = imageFiles.clone();
+        Arrays.sort(sorted, (a, b) -> a.getName().compareTo(b.getName()));
+
+        Map<Long, Integer> rowsByHash = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.hasEmbedding) {
+                rowsByHash.put(entry.contentHash, i);
+            }
+        }
+
+        Set<String> present = new HashSet<>();
+        List<Change> changes = new ArrayList<>();
+        List<File> pendingFiles = new ArrayList<>();
+        List<Long> pendingHashes = new ArrayList<>();
+
+        for (int i = 0; i < sorted.length; i++) {
+            File imageFile = sorted[i];
+            present.add(imageFile.getName());
+            if (listener != null) {
+                listener.onProgress(i, sorted.length);
+            }
+
+            int row = findRow(imageFile.getName());
+            Entry existing = row >= 0 && !isTombstone(entries.get(row)) ? entries.get(row) : null;
+            if (existing != null && existing.lastModified == imageFile.lastModified()
+                    && existing.length == imageFile.length()) {
+                continue;
+            }
+
+            long contentHash = contentHash(imageFile);
+            Integer sameContent = existing != null && existing.contentHash == contentHash
+                    ? Integer.valueOf(row) : rowsByHash.get(contentHash);
+            if (sameContent != null) {
+                float[] embedding = entries.get(sameContent).hasEmbedding
+                        ? getVector(sameContent, new float[dimension]) : null;
+                changes.add(Change.put(new Entry(imageFile.getName(), contentHash,
+                        imageFile.lastModified(), imageFile.length(), embedding != null), embedding));
+            } else {
+                pendingFiles.add(imageFile);
+                pendingHashes.add(contentHash);
+            }
+        }
+
+        if (!pendingFiles.isEmpty()) {
+            float[][] embeddings = embedder.embedAll(pendingFiles);
+            for (int k = 0; k < pendingFiles.size(); k++) {
+                File imageFile = pendingFiles.get(k);
+                changes.add(Change.put(new Entry(imageFile.getName(), pendingHashes.get(k),
+                        imageFile.lastModified(), imageFile.length(), embeddings[k] != null), embeddings[k]));
+            }
+        }
+
+        for (Entry entry : entries) {
+            if (!isTombstone(entry) && !present.contains(entry.fileName)) {
+                changes.add(Change.remove(entry.fileName));
+            }
+        }
+
+        if (changes.isEmpty()) {
+            return this;
+        }
+        appendJournal(changes);
+        return apply(changes);
+    }
+
+    /**
+     * True once journaled rows and tombstones make up enough of the index that folding them
+     * into a fresh file pays for itself in replay time and memory
+     */
+    public boolean needsCompaction() {
+        int changes = (entries.size() - mappedRows) + tombstones;
+        return changes >= Math.max(COMPACTION_MIN_CHANGES, entries.size() / COMPACTION_DIVISOR);
+    }
+
+    /**
+     * Write the live rows into a fresh index file, drop the journal and map the result.
+     * Rows are renumbered, so nothing derived from row numbers of this index stays valid.
+     */
+    public EmbeddingIndex compact() throws IOException {
+        List<Entry> live = new ArrayList<>(entries.size() - tombstones);
+        float[] liveVectors = new float[(entries.size() - tombstones) * dimension];
+        for (int row = 0; row < entries.size(); row++) {
+            Entry entry = entries.get(row);
+            if (isTombstone(entry)) continue;
+            copyRow(row, liveVectors, live.size());
+            live.add(entry);
+        }
+        write(file, dimension, live, liveVectors);
+        // The journal's updates are part of the compacted index now
+        File journal = journalFile();
+        if (journal.exists() && !journal.delete()) {
+            throw new IOException("Failed to drop index journal: " + journal.getAbsolutePath());
+        }
+        return map(file, dimension);
+    }
+
+    /**
+     * Add or replace one reference without rewriting the index. The change is appended to
+     * the journal before the new index is returned; this index is left untouched.
+     *
+     * @param embedding the reference's embedding, or null when it holds no usable face
+     */
+    public EmbeddingIndex put(String fileName, long contentHash, long lastModified, long length,
+                              float[] embedding) throws IOException {
+        List<Change> changes = Collections.singletonList(
+                Change.put(new Entry(fileName, contentHash, lastModified, length, embedding != null), embedding));
+        appendJournal(changes);
+        return apply(changes);
+    }
+
+    /**
+     * Tombstone one reference without rewriting the index
+     *
+     * @return the updated index, or this index when the reference is not indexed
+     */
+    public EmbeddingIndex remove(String fileName) throws IOException {
+        int row = findRow(fileName);
+        if (row < 0 || isTombstone(entries.get(row))) {
+            return this;
+        }
+        List<Change> changes = Collections.singletonList(Change.remove(fileName));
+        appendJournal(changes);
+        return apply(changes);
+    }
+
+    /**
+     * New index with the changes applied in order; this index is left untouched
+     */
+    private EmbeddingIndex apply(List<Change> changes) {
+        List<Entry> newEntries = new ArrayList<>(entries);
+        Map<String, Integer> rows = new HashMap<>();
+        for (int row = 0; row < newEntries.size(); row++) {
+            rows.put(newEntries.get(row).fileName, row);
+        }
+        int puts = 0;
+        for (Change change : changes) {
+            if (change.op == JOURNAL_PUT) puts++;
+        }
+
+        float[] newTail = Arrays.copyOf(tail, tail.length + puts * dimension);
+        for (Change change : changes) {
+            Integer row = rows.get(change.entry.fileName);
+            if (row != null) {
+                newEntries.set(row, tombstone(change.entry.fileName));
+            }
+            if (change.op != JOURNAL_PUT) continue;
+            if (change.embedding != null) {
+                int tailRow = newEntries.size() - mappedRows;
+                System.arraycopy(change.embedding, 0, newTail, tailRow * dimension, dimension);
+            }
+            rows.put(change.entry.fileName, newEntries.size());
+            newEntries.add(change.entry);
+        }
+        return new EmbeddingIndex(file, dimension, newEntries, vectors, newTail);
+    }
+
+    /**
+     * Replaced and removed rows keep their name but lose their embedding and file stamp
+     */
+    private static Entry tombstone(String fileName) {
+        return new Entry(fileName, 0, 0, 0, false);
+    }
+
+    private static boolean isTombstone(Entry entry) {
+        return !entry.hasEmbedding && entry.lastModified == 0 && entry.length == 0;
+    }
+
+    private File journalFile() {
+        return new File(file.getParentFile(), file.getName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Append the changes as one write and one sync, so a whole folder sync costs a single flush
+     */
+    private void appendJournal(List<Change> changes) throws IOException {
+        int bytes = 0;
+        byte[][] names = new byte[changes.size()][];
+        for (int i = 0; i < changes.size(); i++) {
+            names[i] = changes.get(i).entry.fileName.getBytes(StandardCharsets.UTF_8);
+            bytes += 1 + 4 + names[i].length + 8 * 3 + 1 + (changes.get(i).embedding != null ? dimension * 4 : 0);
+        }
+
+        ByteBuffer records = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            records.put(change.op).putInt(names[i].length).put(names[i]);
+            records.putLong(change.entry.contentHash).putLong(change.entry.lastModified).putLong(change.entry.length);
+            records.put((byte) (change.embedding != null ? 1 : 0));
+            if (change.embedding != null) {
+                records.asFloatBuffer().put(change.embedding, 0, dimension);
+                records.position(records.position() + dimension * 4);
+            }
+        }
+
+        try (FileOutputStream outputStream = new FileOutputStream(journalFile(), true)) {
+            outputStream.write(records.array());
+            outputStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Apply the journal to this freshly mapped index. A record cut short by a crash, and
+     * anything after it, is truncated away; every complete record before it is kept.
+     */
+    private EmbeddingIndex replayJournal() throws IOException {
+        File journal = journalFile();
+        if (!journal.exists()) {
+            return this;
+        }
+        List<Change> changes = new ArrayList<>();
+        long validBytes = 0;
+        long journalBytes;
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+             FileChannel channel = raf.getChannel()) {
+            journalBytes = channel.size();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, journalBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                Change change = readChange(buffer);
+                if (change == null) break;
+                changes.add(change);
+                validBytes = buffer.position();
+            }
+            if (validBytes < journalBytes) {
+                channel.truncate(validBytes);
+            }
+        }
+        return changes.isEmpty() ? this : apply(changes);
+    }
+
+    /**
+     * Next journal record, or null when the rest of the buffer is not one complete record
+     */
+    private Change readChange(ByteBuffer buffer) {
+        if (buffer.remaining() < 1 + 4) return null;
+        byte op = buffer.get();
+        int nameLength = buffer.getInt();
+        if ((op != JOURNAL_PUT && op != JOURNAL_REMOVE) || nameLength < 0
+                || buffer.remaining() < nameLength + 8 * 3 + 1) {
+            return null;
+        }
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        long contentHash = buffer.getLong();
+        long lastModified = buffer.getLong();
+        long length = buffer.getLong();
+        float[] embedding = null;
+        if (buffer.get() != 0) {
+            if (buffer.remaining() < dimension * 4) return null;
+            embedding = new float[dimension];
+            buffer.asFloatBuffer().get(embedding);
+            buffer.position(buffer.position() + dimension * 4);
+        }
+        String fileName = new String(name, StandardCharsets.UTF_8);
+        return op == JOURNAL_REMOVE ? Change.remove(fileName)
+                : Change.put(new Entry(fileName, contentHash, lastModified, length, embedding != null), embedding);
+    }
+
+    private void copyRow(int row, float[] target, int targetRow) {
+        if (row >= mappedRows) {
+            System.arraycopy(tail, (row - mappedRows) * dimension, target, targetRow * dimension, dimension);
+            return;
+        }
+        FloatBuffer view = vectors.duplicate();
+        view.position(row * dimension);
+        view.get(target, targetRow * dimension, dimension);
+    }
+
+    private static void write(File file, int dimension, List<Entry> entries, float[] vectors) throws IOException {
+        int metadataBytes = 0;
+        for (Entry entry : entries) {
+            metadataBytes += 4 + entry.fileName.getBytes(StandardCharsets.UTF_8).length + 8 * 3 + 1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + vectors.length * 4 + metadataBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(entries.size());
+        buffer.asFloatBuffer().put(vectors);
+        buffer.position(HEADER_BYTES + vectors.length * 4);
+        for (Entry entry : entries) {
+            byte[] name = entry.fileName.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(name.length).put(name);
+            buffer.putLong(entry.contentHash).putLong(entry.lastModified).putLong(entry.length);
+            buffer.put((byte) (entry.hasEmbedding ? 1 : 0));
+        }
+
+        // Write next to the target and rename so a crash never leaves a torn index behind
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(tmp)) {
+            outputStream.write(buffer.array());
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace embedding index: " + file.getAbsolutePath());
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * First 8 bytes of the SHA-256 digest of the file contents
+     */
+    static long contentHash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] chunk = new byte[64 * 1024];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                digest.update(chunk, 0, read);
+            }
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * One journaled put or remove
+     */
+    private static class Change {
+        final byte op;
+        final Entry entry;
+        final float[] embedding;
+
+        private Change(byte op, Entry entry, float[] embedding) {
+            this.op = op;
+            this.entry = entry;
+            this.embedding = embedding;
+        }
+
+        static Change put(Entry entry, float[] embedding) {
+            return new Change(JOURNAL_PUT, entry, embedding);
+        }
+
+        static Change remove(String fileName) {
+            return new Change(JOURNAL_REMOVE, tombstone(fileName), null);
+        }
+    }
+
+    /**
+     * Metadata for one indexed reference image
+     */
+    public static class Entry {
+        public final String fileName;
+        public final String baseName;
+        public final long contentHash;
+        public final long lastModified;
+        public final long length;
+        public final boolean hasEmbedding;
+
+        public Entry(String fileName, long contentHash, long lastModified, long length, boolean hasEmbedding) {
+            this.fileName = fileName;
+            int dot = fileName.lastIndexOf('.');
+            this.baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+            this.contentHash = contentHash;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hasEmbedding = hasEmbedding;
+        }
+    }
+
+    /**
+     * Produces the embedding for a reference image file, or null when it holds no usable face
+     */
+    public interface Embedder {
+        float[] embed(File imageFile);
+    }
+
+    /**
+     * Produces embeddings for several reference image files at once; the result is aligned
+     * with the input list and holds null for images without a usable face
+     */
+    public interface BatchEmbedder {
+        float[][] embedAll(List<File> imageFiles) throws IOException;
+    }
+
+    /**
+     * Receives sync progress as (files already checked, total files)
+     */
+    public interface ProgressListener {
+        void onProgress(int processed, int total);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.imageanalysis;
+
+/**
+ * Unit-normalized embeddings stored row after row in one flat array.
+ *
+ * With every row normalized up front, cosine similarity is a plain dot product, so a search
+ * is a single sequential pass over the array. Rows that were never set stay zero and score 0.
+ */
+public class EmbeddingMatrix {
+
+    private final int dimension;
+    private final int rows;
+    private final float[] data;
+
+    public EmbeddingMatrix(int dimension, int rows) {
+        this.dimension = dimension;
+        this.rows = rows;
+        this.data = new float[dimension * rows];
+    }
+
+    /**
+     * Copy and normalize every embedded row of the index
+     */
+    public static EmbeddingMatrix fromIndex(EmbeddingIndex index) {
+        EmbeddingMatrix matrix = new EmbeddingMatrix(index.getDimension(), index.size());
+        float[] vector = new float[index.getDimension()];
+        for (int row = 0; row < index.size(); row++) {
+            if (!index.getEntry(row).hasEmbedding) continue;
+            matrix.setRow(row, index.getVector(row, vector));
+        }
+        return matrix;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Store a normalized copy of the vector at the given row
+     */
+    public void setRow(int row, float[] vector) {
+        normalize(vector, 0, data, row * dimension, dimension);
+    }
+
+    /**
+     * Copy the normalized row into {@code out}
+     */
+    public float[] getRow(int row, float[] out) {
+        System.arraycopy(data, row * dimension, out, 0, dimension);
+        return out;
+    }
+
+    /**
+     * The backing array, row after row, for code in this package that scores rows in place.
+     * Shared, so it must never be written.
+     */
+    float[] data() {
+        return data;
+    }
+
+    /**
+     * Similarity between a unit-length probe and one row
+     */
+    public float score(float[] unitProbe, int row) {
+        return dot(unitProbe, 0, data, row * dimension, dimension);
+    }
+
+    /**
+     * Score rows [fromRow, toRow) against one unit-length probe; scores[i] belongs to fromRow + i
+     */
+    public void scan(float[] unitProbe, int fromRow, int toRow, float[] scores) {
+        int offset = fromRow * dimension;
+        for (int row = fromRow; row < toRow; row++, offset += dimension) {
+            scores[row - fromRow] = dot(unitProbe, 0, data, offset, dimension);
+        }
+    }
+
+    /**
+     * Score rows [fromRow, toRow) against several unit-length probes in one pass. Each row is
+     * read from memory once and reused for every probe while it is still in cache.
+     */
+    public void scan(float[][] unitProbes, int fromRow, int toRow, float[][] scores) {
+        int offset = fromRow * dimension;
+        for (int row = fromRow; row < toRow; row++, offset += dimension) {
+            for (int p = 0; p < unitProbes.length; p++) {
+                scores[p][row - fromRow] = dot(unitProbes[p], 0, data, offset, dimension);
+            }
+        }
+    }
+
+    /**
+     * Normalized copy of the vector; a zero vector stays zero
+     */
+    public static float[] normalize(float[] vector) {
+        float[] unit = new float[vector.length];
+        normalize(vector, 0, unit, 0, vector.length);
+        return unit;
+    }
+
+    static void normalize(float[] src, int srcOffset, float[] dst, int dstOffset, int length) {
+        float norm = dot(src, srcOffset, src, srcOffset, length);
+        float inverse = norm > 0 ? (float) (1.0 / Math.sqrt(norm)) : 0f;
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = src[srcOffset + i] * inverse;
+        }
+    }
+
+    /**
+     * Cosine similarity of two vectors of any length
+     */
+    public static double cosine(float[] a, float[] b) {
+        double dot = dot(a, 0, b, 0, a.length);
+        double normA = dot(a, 0, a, 0, a.length);
+        double normB = dot(b, 0, b, 0, b.length);
+        return normA > 0 && normB > 0 ? dot / Math.sqrt(normA * normB) : 0;
+    }
+
+    /**
+     * Dot product unrolled by four with independent accumulators, which keeps the loop free of
+     * a single dependency chain and easy for the JIT to compile into straight-line code
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum0 = 0f;
+        float sum1 = 0f;
+        float sum2 = 0f;
+        float sum3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.imageanalysis;
+
+/**
+ * Bounding box of a detected face in pixel coordinates; right and bottom are exclusive
+ */
+public class FaceBox {
+    public final int left;
+    public final int top;
+    public final int right;
+    public final int bottom;
+
+    public FaceBox(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public int width() {
+        return right - left;
+    }
+
+    public int height() {
+        return bottom - top;
+    }
+
+    /**
+     * The part of the box inside a width x height image, or null when they do not overlap
+     */
+    public FaceBox clampTo(int width, int height) {
+        int l = Math.max(0, left);
+        int t = Math.max(0, top);
+        int r = Math.min(width, right);
+        int b = Math.min(height, bottom);
+        return r > l && b > t ? new FaceBox(l, t, r, b) : null;
+    }
+}
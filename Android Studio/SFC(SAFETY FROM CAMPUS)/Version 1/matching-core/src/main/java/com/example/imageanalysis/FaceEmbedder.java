@@ -0,0 +1,22 @@
+package com.example.imageanalysis;
+
+/**
+ * Turns a face crop into an embedding whose cosine similarity says how alike two faces are.
+ *
+ * The app implements it with its MobileFaceNet interpreters ({@code TfliteFaceEmbedder}); tests
+ * and benchmarks plug in fakes so the matching code runs without a device.
+ */
+public interface FaceEmbedder {
+
+    /**
+     * Length of every embedding this embedder returns
+     */
+    int getDimension();
+
+    /**
+     * Embedding of a face that is already cut out
+     *
+     * @param pixels ARGB pixels, row-major with a stride of {@code width}
+     */
+    float[] embed(int[] pixels, int width, int height) throws InterruptedException;
+}
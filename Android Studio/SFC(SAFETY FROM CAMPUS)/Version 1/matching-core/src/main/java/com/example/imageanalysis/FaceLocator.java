@@ -0,0 +1,20 @@
+package com.example.imageanalysis;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Finds faces in an image.
+ *
+ * The app implements it with ML Kit ({@code MlKitFaceDetector}); tests and benchmarks plug in
+ * fakes so the matching code runs without a device.
+ */
+public interface FaceLocator {
+
+    /**
+     * Every face in the image, in no particular order
+     *
+     * @param pixels ARGB pixels, row-major with a stride of {@code width}
+     */
+    List<FaceBox> locate(int[] pixels, int width, int height) throws ExecutionException, InterruptedException;
+}
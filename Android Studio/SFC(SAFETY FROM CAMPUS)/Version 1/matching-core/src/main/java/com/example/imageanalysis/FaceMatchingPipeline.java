@@ -0,0 +1,252 @@
+package com.example.imageanalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Detect, embed and search, written only against {@link FaceLocator} and {@link FaceEmbedder}.
+ *
+ * This is the matching flow of the app without any platform types, so it can be load-tested
+ * and benchmarked on a plain JVM with fake models. The exact searches here are the ones the
+ * app runs; {@code ImageMatcher} only turns their rows into results.
+ */
+public class FaceMatchingPipeline {
+
+    /** Rows scored at a time; progress and early exit are checked between blocks */
+    public static final int BLOCK_SIZE = 256;
+
+    private final FaceLocator locator;
+    private final FaceEmbedder embedder;
+
+    public FaceMatchingPipeline(FaceLocator locator, FaceEmbedder embedder) {
+        this.locator = locator;
+        this.embedder = embedder;
+    }
+
+    /**
+     * Rank the references of the index for every face in the image. Faces whose box lies
+     * outside the image are dropped.
+     *
+     * @param pixels ARGB pixels, row-major with a stride of {@code width}
+     */
+    public List<FaceResult> match(int[] pixels, int width, int height, EmbeddingIndex index, int topK)
+            throws ExecutionException, InterruptedException {
+        List<FaceResult> results = new ArrayList<>();
+        for (FaceBox detected : locator.locate(pixels, width, height)) {
+            FaceBox box = detected.clampTo(width, height);
+            if (box == null) continue;
+
+            int[] crop = new int[box.width() * box.height()];
+            for (int y = 0; y < box.height(); y++) {
+                System.arraycopy(pixels, (box.top + y) * width + box.left, crop, y * box.width(), box.width());
+            }
+            float[] embedding = embedder.embed(crop, box.width(), box.height());
+            results.add(new FaceResult(box, embedding, search(embedding, index, topK)));
+        }
+        return results;
+    }
+
+    /**
+     * Exact search: score every embedded reference and keep the best {@code topK}, best first
+     */
+    public static List<SearchHit> search(float[] probe, EmbeddingIndex index, int topK) {
+        return search(probe, index, topK, null, null, EarlyExit.never(), null);
+    }
+
+    /**
+     * Exact search that may stop before the end of the index. The {@code firstRows}, such as
+     * recently accepted references, are scored before anything else; the rest of the index is
+     * then scanned {@link #BLOCK_SIZE} rows at a time. Between blocks the listener hears about
+     * progress and the scan ends once the early-exit rule says the best hit is unambiguous.
+     *
+     * The runner-up of that rule is the best hit of another person: another photo of the
+     * leading identity says nothing about whether the match is ambiguous. The rule is only
+     * asked after at least one full block, so the first rows alone never end a search.
+     *
+     * @param firstRows  rows to score first, or null; rows without an embedding are skipped
+     * @param identities who each row shows, or null to tell people apart by base name
+     * @param listener   progress receiver, or null
+     * @return up to {@code topK} rows, best first
+     */
+    public static List<SearchHit> search(float[] probe, EmbeddingIndex index, int topK, int[] firstRows,
+                                         IdentityIndex identities, EarlyExit earlyExit, ScanListener listener) {
+        EmbeddingMatrix matrix = index.matrix();
+        float[] unitProbe = EmbeddingMatrix.normalize(probe);
+        int total = index.size();
+        float[] scores = new float[Math.min(total, BLOCK_SIZE)];
+        TopK best = new TopK(topK);
+        Leader leader = new Leader(index, identities);
+
+        // Likely candidates first: they often settle the search before the full scan starts
+        boolean[] scoredFirst = new boolean[total];
+        for (int row : firstRows != null ? firstRows : new int[0]) {
+            if (row < 0 || row >= total || scoredFirst[row] || !index.getEntry(row).hasEmbedding) continue;
+            scoredFirst[row] = true;
+            float score = matrix.score(unitProbe, row);
+            best.offer(row, score);
+            leader.offer(row, score);
+        }
+
+        for (int from = 0; from < total; from += BLOCK_SIZE) {
+            if (from > 0 && earlyExit.isUnambiguous(leader.bestScore, leader.runnerUp)) {
+                if (listener != null) listener.onEarlyExit(from, total);
+                break;
+            }
+            if (listener != null && from > 0 && !listener.onProgress(from, total, leader.bestSoFar())) {
+                break;
+            }
+            int to = Math.min(total, from + BLOCK_SIZE);
+            matrix.scan(unitProbe, from, to, scores);
+            for (int row = from; row < to; row++) {
+                if (scoredFirst[row] || !index.getEntry(row).hasEmbedding) continue;
+                float score = scores[row - from];
+                best.offer(row, score);
+                leader.offer(row, score);
+            }
+        }
+        return best.toSortedList();
+    }
+
+    /**
+     * Exact search for several probes in a single pass over the embedding matrix
+     *
+     * @return one ranking per probe, in probe order
+     */
+    public static List<List<SearchHit>> search(float[][] probes, EmbeddingIndex index, int topK) {
+        EmbeddingMatrix matrix = index.matrix();
+        int probeCount = probes.length;
+        float[][] unitProbes = new float[probeCount][];
+        float[][] scores = new float[probeCount][BLOCK_SIZE];
+        TopK[] best = new TopK[probeCount];
+        for (int p = 0; p < probeCount; p++) {
+            unitProbes[p] = EmbeddingMatrix.normalize(probes[p]);
+            best[p] = new TopK(topK);
+        }
+
+        int total = index.size();
+        for (int from = 0; from < total && probeCount > 0; from += BLOCK_SIZE) {
+            int to = Math.min(total, from + BLOCK_SIZE);
+            matrix.scan(unitProbes, from, to, scores);
+            for (int row = from; row < to; row++) {
+                if (!index.getEntry(row).hasEmbedding) continue;
+                for (int p = 0; p < probeCount; p++) {
+                    best[p].offer(row, scores[p][row - from]);
+                }
+            }
+        }
+
+        List<List<SearchHit>> rankings = new ArrayList<>(probeCount);
+        for (TopK probeBest : best) {
+            rankings.add(probeBest.toSortedList());
+        }
+        return rankings;
+    }
+
+    /**
+     * Best score of a scan so far and the best score of anyone else.
+     *
+     * The leader always holds the highest score seen, so when another person takes the lead
+     * the old leader is the new runner-up, and when the leader's own photo beats it nothing
+     * changes for the other people.
+     */
+    private static class Leader {
+        final EmbeddingIndex index;
+        final IdentityIndex identities;
+        int bestRow = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        double runnerUp = Double.NEGATIVE_INFINITY;
+
+        Leader(EmbeddingIndex index, IdentityIndex identities) {
+            this.index = index;
+            this.identities = identities;
+        }
+
+        void offer(int row, double score) {
+            if (score > bestScore) {
+                if (bestRow >= 0 && !samePerson(row, bestRow)) runnerUp = bestScore;
+                bestRow = row;
+                bestScore = score;
+            } else if (score > runnerUp && !samePerson(row, bestRow)) {
+                runnerUp = score;
+            }
+        }
+
+        private boolean samePerson(int a, int b) {
+            int identityA = identities != null ? identities.identityOf(a) : -1;
+            int identityB = identities != null ? identities.identityOf(b) : -1;
+            if (identityA >= 0 && identityB >= 0) {
+                return identityA == identityB;
+            }
+            return index.getEntry(a).baseName.equals(index.getEntry(b).baseName);
+        }
+
+        SearchHit bestSoFar() {
+            return bestRow >= 0 ? new SearchHit(bestRow, bestScore) : null;
+        }
+    }
+
+    /**
+     * When an exact search may stop: the best hit reaches the threshold and leads the
+     * runner-up by the margin
+     */
+    public static class EarlyExit {
+        public final double threshold;
+        public final double margin;
+
+        public EarlyExit(double threshold, double margin) {
+            this.threshold = threshold;
+            this.margin = margin;
+        }
+
+        /**
+         * Always scan the whole index
+         */
+        public static EarlyExit never() {
+            return new EarlyExit(Double.POSITIVE_INFINITY, 0);
+        }
+
+        /**
+         * True once the best hit clears the threshold by the margin over a runner-up that was
+         * actually scored; a single scored reference never settles a search
+         */
+        public boolean isUnambiguous(double best, double runnerUp) {
+            return runnerUp > Double.NEGATIVE_INFINITY && best >= threshold && best - runnerUp >= margin;
+        }
+    }
+
+    /**
+     * Receives the progress of an exact search
+     */
+    public interface ScanListener {
+        /**
+         * Called between blocks
+         *
+         * @param bestSoFar best row so far, or null while nothing was scored
+         * @return false to stop the scan
+         */
+        boolean onProgress(int scanned, int total, SearchHit bestSoFar);
+
+        /**
+         * Called when the early-exit rule ends the scan after {@code scanned} rows of the index
+         */
+        default void onEarlyExit(int scanned, int total) {
+        }
+    }
+
+    /**
+     * One face found in the image, its embedding and its best references
+     */
+    public static class FaceResult {
+        public final FaceBox box;
+        public final float[] embedding;
+        /** Rows of the index, best first */
+        public final List<SearchHit> hits;
+
+        public FaceResult(FaceBox box, float[] embedding, List<SearchHit> hits) {
+            this.box = box;
+            this.embedding = embedding;
+            this.hits = hits;
+        }
+    }
+}
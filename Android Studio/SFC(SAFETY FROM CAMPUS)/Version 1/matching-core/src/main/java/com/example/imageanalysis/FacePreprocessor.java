@@ -0,0 +1,122 @@
+package com.example.imageanalysis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts face pixels into the float input tensor of MobileFaceNet.
+ *
+ * Kept free of Android classes so it runs on the JVM. Scratch arrays are cached per thread
+ * and all writes into the tensor are absolute, so the steady-state path allocates nothing.
+ */
+public final class FacePreprocessor {
+
+    public static final int INPUT_SIZE = 112;
+    public static final int INPUT_PIXELS = INPUT_SIZE * INPUT_SIZE;
+    public static final int INPUT_BYTES = 4 * INPUT_PIXELS * 3;
+
+    private static final ThreadLocal<int[][]> PIXEL_SCRATCH = new ThreadLocal<int[][]>() {
+        @Override
+        protected int[][] initialValue() {
+            return new int[][]{new int[INPUT_PIXELS]};
+        }
+    };
+
+    private FacePreprocessor() {
+    }
+
+    /**
+     * Per-thread buffer large enough for one {@link #INPUT_SIZE} x {@link #INPUT_SIZE} face
+     */
+    public static int[] pixelScratch() {
+        return pixelScratch(INPUT_PIXELS);
+    }
+
+    /**
+     * Per-thread buffer holding at least {@code minLength} pixels. It only grows, so after the
+     * largest face has been seen once no further allocation happens.
+     */
+    public static int[] pixelScratch(int minLength) {
+        int[][] holder = PIXEL_SCRATCH.get();
+        if (holder[0].length < minLength) {
+            holder[0] = new int[minLength];
+        }
+        return holder[0];
+    }
+
+    /**
+     * Crop the box out of the source pixels, resize it to {@link #INPUT_SIZE} x {@link #INPUT_SIZE}
+     * with bilinear sampling and write normalized RGB floats into {@code out}, all in one pass.
+     *
+     * The box is clamped to the source bounds, so partially off-frame faces are handled.
+     *
+     * @param src       ARGB pixels, row-major with a stride of {@code srcWidth}
+     * @return false when the box does not overlap the source at all; {@code out} is untouched then
+     */
+    public static boolean cropResizeNormalize(int[] src, int srcWidth, int srcHeight,
+                                              int left, int top, int right, int bottom, ByteBuffer out) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(srcWidth, right);
+        bottom = Math.min(srcHeight, bottom);
+        if (right <= left || bottom <= top) {
+            return false;
+        }
+
+        float scaleX = (float) (right - left) / INPUT_SIZE;
+        float scaleY = (float) (bottom - top) / INPUT_SIZE;
+        int maxX = right - 1;
+        int maxY = bottom - 1;
+        int offset = 0;
+
+        for (int oy = 0; oy < INPUT_SIZE; oy++) {
+            // Sample at output pixel centres, clamped so both taps stay inside the box
+            float sy = Math.min(Math.max(top + (oy + 0.5f) * scaleY - 0.5f, top), maxY);
+            int y0 = (int) sy;
+            int y1 = Math.min(y0 + 1, maxY);
+            float fy = sy - y0;
+            int row0 = y0 * srcWidth;
+            int row1 = y1 * srcWidth;
+
+            for (int ox = 0; ox < INPUT_SIZE; ox++) {
+                float sx = Math.min(Math.max(left + (ox + 0.5f) * scaleX - 0.5f, left), maxX);
+                int x0 = (int) sx;
+                int x1 = Math.min(x0 + 1, maxX);
+                float fx = sx - x0;
+
+                int p00 = src[row0 + x0];
+                int p01 = src[row0 + x1];
+                int p10 = src[row1 + x0];
+                int p11 = src[row1 + x1];
+
+                out.putFloat(offset, bilinear(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, fx, fy));
+                out.putFloat(offset + 4, bilinear(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, fx, fy));
+                out.putFloat(offset + 8, bilinear(p00, p01, p10, p11, fx, fy));
+                offset += 12;
+            }
+        }
+        out.rewind();
+        return true;
+    }
+
+    private static float bilinear(int c00, int c01, int c10, int c11, float fx, float fy) {
+        float top = (c00 & 0xFF) + ((c01 & 0xFF) - (c00 & 0xFF)) * fx;
+        float bottom = (c10 & 0xFF) + ((c11 & 0xFF) - (c10 & 0xFF)) * fx;
+        return (top + (bottom - top) * fy) / 255.0f;
+    }
+
+    /**
+     * Write the first {@code count} ARGB pixels as normalized RGB floats into {@code out},
+     * starting at index 0. The buffer position is left at 0, ready to be fed to the interpreter.
+     */
+    public static void packPixels(int[] pixels, int count, ByteBuffer out) {
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            final int val = pixels[i];
+            out.putFloat(offset, ((val >> 16) & 0xFF) / 255.0f);
+            out.putFloat(offset + 4, ((val >> 8) & 0xFF) / 255.0f);
+            out.putFloat(offset + 8, (val & 0xFF) / 255.0f);
+            offset += 12;
+        }
+        out.rewind();
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.imageanalysis;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Last embedding and match of every face track the detector follows across frames.
+ *
+ * A tracked face is re-embedded only when the cached result has gone stale: the face grew
+ * enough to give a sharper crop, the head turned noticeably closer to frontal, or the refresh
+ * interval ran out. Every other frame reuses the cached result. Kept free of Android classes
+ * so it runs on the JVM; not thread-safe, so use it from the analysis thread only.
+ *
+ * @param <M> the match stored with each embedding
+ */
+public class FaceTrackCache<M> {
+
+    /** Re-embed once the face's short edge grew by this factor since it was last embedded */
+    public static final float DEFAULT_GROWTH_FACTOR = 1.3f;
+    /** Re-embed once the head turned this many degrees closer to frontal */
+    public static final float DEFAULT_YAW_IMPROVEMENT = 10f;
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = 2000;
+    /** Tracks not seen for this long are forgotten */
+    public static final long DEFAULT_EXPIRY_MS = 1000;
+
+    private final float growthFactor;
+    private final float yawImprovement;
+    private final long refreshIntervalMs;
+    private final long expiryMs;
+    private final Map<Integer, Track<M>> tracks = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    public FaceTrackCache() {
+        this(DEFAULT_GROWTH_FACTOR, DEFAULT_YAW_IMPROVEMENT, DEFAULT_REFRESH_INTERVAL_MS, DEFAULT_EXPIRY_MS);
+    }
+
+    public FaceTrackCache(float growthFactor, float yawImprovement, long refreshIntervalMs, long expiryMs) {
+        this.growthFactor = growthFactor;
+        this.yawImprovement = yawImprovement;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.expiryMs = expiryMs;
+    }
+
+    /**
+     * Cached result for the track when it is still good enough for a face of this size and
+     * pose, otherwise null and the face should be embedded again. Counts a hit; the miss is
+     * only counted by {@link #put}, since a face the caller skips never costs an inference.
+     *
+     * @param faceSize short edge of the face box in pixels
+     * @param headYaw  head rotation left or right in degrees; only its magnitude matters
+     */
+    public Track<M> lookup(int trackId, int faceSize, float headYaw, long nowMs) {
+        Track<M> track = tracks.get(trackId);
+        if (track != null) {
+            track.lastSeenMs = nowMs;
+            boolean grown = faceSize >= track.faceSize * growthFactor;
+            boolean turnedToward = Math.abs(headYaw) <= track.headYaw - yawImprovement;
+            boolean expired = nowMs - track.embeddedAtMs >= refreshIntervalMs;
+            if (!grown && !turnedToward && !expired) {
+                hits++;
+                return track;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store a fresh embedding for the track, replacing whatever it had, and count it as a miss
+     */
+    public void put(int trackId, float[] embedding, M match, int faceSize, float headYaw, long nowMs) {
+        misses++;
+        tracks.put(trackId, new Track<>(embedding, match, faceSize, Math.abs(headYaw), nowMs));
+    }
+
+    /**
+     * Forget tracks the detector has not reported for a while; their IDs are not reused
+     */
+    public void expire(long nowMs) {
+        Iterator<Track<M>> it = tracks.values().iterator();
+        while (it.hasNext()) {
+            if (nowMs - it.next().lastSeenMs > expiryMs) {
+                it.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        tracks.clear();
+    }
+
+    public int size() {
+        return tracks.size();
+    }
+
+    public Stats getStats() {
+        return new Stats(hits, misses);
+    }
+
+    /**
+     * A face track's cached result
+     */
+    public static class Track<M> {
+        public final float[] embedding;
+        public final M match;
+        final int faceSize;
+        final float headYaw;
+        final long embeddedAtMs;
+        long lastSeenMs;
+
+        Track(float[] embedding, M match, int faceSize, float headYaw, long embeddedAtMs) {
+            this.embedding = embedding;
+            this.match = match;
+            this.faceSize = faceSize;
+            this.headYaw = headYaw;
+            this.embeddedAtMs = embeddedAtMs;
+            this.lastSeenMs = embeddedAtMs;
+        }
+    }
+
+    /**
+     * Lookups answered from the cache versus faces that needed a fresh inference
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+
+        public Stats(long hits, long misses) {
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups > 0 ? (double) hits / lookups : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d cache hits, %d fresh embeddings (%.0f%% hit rate)",
+                    hits, misses, getHitRate() * 100);
+        }
+    }
+}
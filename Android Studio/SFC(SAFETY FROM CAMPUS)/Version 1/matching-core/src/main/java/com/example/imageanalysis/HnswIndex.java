@@ -0,0 +1,746 @@
+package com.example.imageanalysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hierarchical navigable small world graph over reference embeddings.
+ *
+ * Nodes are keyed by reference file name. Search descends greedily through the sparse upper
+ * layers and then runs a best-first search of width efSearch on the dense bottom layer, so its
+ * cost grows roughly with the logarithm of the gallery size. Deleted nodes stay in the graph
+ * as tombstones that are traversed but never returned; the graph is rebuilt once they make
+ * up a quarter of it.
+ *
+ * Live nodes hold no vector of their own: {@link #syncWith} binds each one to its row of the
+ * index's normalized {@link EmbeddingMatrix}, which exact search and identity grouping already
+ * keep in memory. Only tombstones, and vectors handed to {@link #insert} directly, keep a private
+ * copy. Node levels are drawn from a hash of the key and content, so a graph grown across many
+ * app launches still gets independent levels.
+ *
+ * The whole graph lives in one file next to the reference images and is only read on first
+ * use; a graph read from its file can only be searched after {@link #syncWith} bound it. All
+ * methods are synchronized: searches reuse one visited-marks array.
+ */
+public class HnswIndex {
+
+    public static final String FILE_NAME = ".sfc_hnsw.idx";
+
+    private static final int MAGIC = 0x53464348; // "SFCH"
+    private static final int VERSION = 2;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final File file;
+    private final int dimension;
+    private final Params params;
+    private final double levelMultiplier;
+    private final float[] zeroVector;
+
+    private boolean loaded;
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    // Vector of a node: row rows[node] of matrixData, or ownVectors[node] when the row is -1
+    private float[] matrixData = new float[0];
+    private int[] rows;
+    private float[][] ownVectors;
+    private String[] keys;
+    private long[] contentHashes;
+    private boolean[] deleted;
+    private int[] levels;
+    // links[node][level] holds the neighbour count at [0] followed by the neighbour ids
+    private int[][][] links;
+    private final Map<String, Integer> nodesByKey = new HashMap<>();
+
+    private int[] visitedMarks = new int[0];
+    private int visitEpoch;
+
+    /**
+     * Graph construction and search parameters
+     */
+    public static class Params {
+        /** Links per node on the upper layers; the bottom layer keeps twice as many */
+        public final int m;
+        /** Width of the candidate list while inserting */
+        public final int efConstruction;
+        /** Width of the candidate list while searching; at least K is always used */
+        public final int efSearch;
+
+        public Params(int m, int efConstruction, int efSearch) {
+            this.m = Math.max(2, m);
+            this.efConstruction = Math.max(1, efConstruction);
+            this.efSearch = Math.max(1, efSearch);
+        }
+
+        public static Params defaults() {
+            return new Params(16, 100, 64);
+        }
+    }
+
+    private HnswIndex(File file, int dimension, Params params) {
+        this.file = file;
+        this.dimension = dimension;
+        this.params = params;
+        this.levelMultiplier = 1.0 / Math.log(params.m);
+        this.zeroVector = new float[dimension];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Graph stored in the given file. Nothing is read until the graph is first used; a missing
+     * or incompatible file yields an empty graph.
+     */
+    public static HnswIndex open(File file, int dimension, Params params) {
+        return new HnswIndex(file, dimension, params);
+    }
+
+    /**
+     * Empty graph that is only saved when {@link #save} is given a file
+     */
+    public static HnswIndex inMemory(int dimension, Params params) {
+        HnswIndex index = new HnswIndex(null, dimension, params);
+        index.loaded = true;
+        return index;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public Params getParams() {
+        return params;
+    }
+
+    /**
+     * Number of live (not deleted) nodes
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return size - deletedCount;
+    }
+
+    public synchronized boolean contains(String key) {
+        ensureLoaded();
+        return nodesByKey.containsKey(key);
+    }
+
+    /**
+     * Key of the node returned as {@link SearchHit#row}
+     */
+    public synchronized String getKey(int node) {
+        ensureLoaded();
+        return keys[node];
+    }
+
+    /**
+     * Insert or replace the vector stored under the key. The graph keeps its own normalized copy;
+     * {@link #syncWith} inserts without one.
+     */
+    public synchronized void insert(String key, long contentHash, float[] vector) {
+        ensureLoaded();
+        insertNode(key, contentHash, -1, EmbeddingMatrix.normalize(vector));
+    }
+
+    /**
+     * @param row       row of the bound matrix holding the vector, or -1
+     * @param ownVector normalized vector when {@code row} is -1
+     */
+    private void insertNode(String key, long contentHash, int row, float[] ownVector) {
+        delete(key);
+        if (size == keys.length) {
+            allocate(keys.length * 2);
+        }
+
+        int node = size++;
+        int level = levelFor(key, contentHash);
+        rows[node] = row;
+        ownVectors[node] = ownVector;
+        keys[node] = key;
+        contentHashes[node] = contentHash;
+        levels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxLinks(l) + 1];
+        }
+        nodesByKey.put(key, node);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        float[] query = vectorOf(node);
+        int queryOffset = offsetOf(node);
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(query, queryOffset, current, l);
+        }
+        int[] entryPoints = {current};
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            Heap found = searchLayer(query, queryOffset, entryPoints, params.efConstruction, l);
+            int[] candidates = found.idsByScoreDescending();
+            int[] neighbours = selectNeighbours(node, candidates, params.m);
+            for (int neighbour : neighbours) {
+                addLink(node, neighbour, l);
+                addLink(neighbour, node, l);
+            }
+            entryPoints = candidates;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Geometric level from a hash of the node's key and content: independent between nodes like
+     * a random draw, without a seeded sequence that restarts every time the graph is opened
+     */
+    private int levelFor(String key, long contentHash) {
+        long z = key.hashCode() * 0x9E3779B97F4A7C15L + contentHash;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        double uniform = ((z >>> 11) + 1) * 0x1.0p-53;
+        return (int) (-Math.log(uniform) * levelMultiplier);
+    }
+
+    /**
+     * Mark the node stored under the key as deleted
+     *
+     * @return true when the key was present
+     */
+    public synchronized boolean delete(String key) {
+        ensureLoaded();
+        Integer node = nodesByKey.remove(key);
+        if (node == null) return false;
+        deleted[node] = true;
+        deletedCount++;
+        return true;
+    }
+
+    /**
+     * The K nodes most similar to the probe; {@link SearchHit#row} is the node id
+     */
+    public synchronized List<SearchHit> search(float[] probe, int topK) {
+        return search(probe, topK, params.efSearch);
+    }
+
+    public synchronized List<SearchHit> search(float[] probe, int topK, int efSearch) {
+        ensureLoaded();
+        if (entryPoint < 0 || topK <= 0) {
+            return new ArrayList<>();
+        }
+        float[] unitProbe = EmbeddingMatrix.normalize(probe);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(unitProbe, 0, current, l);
+        }
+        // Widen the search by the tombstones it may run into
+        int ef = Math.max(efSearch, topK) + Math.min(deletedCount, topK * 4);
+        Heap found = searchLayer(unitProbe, 0, new int[]{current}, ef, 0);
+
+        TopK best = new TopK(topK);
+        for (int i = 0; i < found.size; i++) {
+            if (!deleted[found.ids[i]]) best.offer(found.ids[i], found.scores[i]);
+        }
+        return best.toSortedList();
+    }
+
+    /**
+     * Bring the graph in line with the index: rows whose file name and content hash are
+     * already present are kept, everything else is inserted, and missing keys are deleted.
+     * The graph is compacted when tombstones pile up and saved when anything changed.
+     *
+     * @return true when the graph changed
+     */
+    public synchronized boolean syncWith(EmbeddingIndex index) throws IOException {
+        ensureLoaded();
+        bind(index);
+        boolean changed = false;
+        Set<String> live = new HashSet<>();
+
+        for (int row = 0; row < index.size(); row++) {
+            EmbeddingIndex.Entry entry = index.getEntry(row);
+            if (!entry.hasEmbedding) continue;
+            live.add(entry.fileName);
+            Integer node = nodesByKey.get(entry.fileName);
+            if (node != null && contentHashes[node] == entry.contentHash) continue;
+            insertNode(entry.fileName, entry.contentHash, row, null);
+            changed = true;
+        }
+        for (String key : new ArrayList<>(nodesByKey.keySet())) {
+            if (!live.contains(key)) {
+                delete(key);
+                changed = true;
+            }
+        }
+
+        if (deletedCount > 0 && deletedCount * 4 >= size) {
+            compact();
+            changed = true;
+        }
+        if (changed && file != null) {
+            save(file);
+        }
+        return changed;
+    }
+
+    /**
+     * Point every live node whose key and content are in the index at its row of the index's
+     * matrix. Nodes leaving the old matrix keep a copy of their vector, so tombstones still steer
+     * searches the way they did when they were linked.
+     */
+    private void bind(EmbeddingIndex index) {
+        float[] data = index.matrix().data();
+        for (int node = 0; node < size; node++) {
+            int row = -1;
+            if (!deleted[node]) {
+                int candidate = index.findRow(keys[node]);
+                if (candidate >= 0 && index.getEntry(candidate).hasEmbedding
+                        && index.getEntry(candidate).contentHash == contentHashes[node]) {
+                    row = candidate;
+                }
+            }
+            if (row < 0 && rows[node] >= 0 && ownVectors[node] == null) {
+                int offset = rows[node] * dimension;
+                ownVectors[node] = Arrays.copyOfRange(matrixData, offset, offset + dimension);
+            }
+            if (row >= 0) {
+                ownVectors[node] = null;
+            }
+            rows[node] = row;
+        }
+        matrixData = data;
+    }
+
+    /**
+     * Fraction of the exact top-K that the graph search returns, averaged over the probes
+     */
+    public synchronized double measureRecall(List<float[]> probes, int topK) {
+        ensureLoaded();
+        if (probes.isEmpty()) return 1.0;
+        double recallSum = 0;
+        for (float[] probe : probes) {
+            float[] unitProbe = EmbeddingMatrix.normalize(probe);
+            TopK exact = new TopK(topK);
+            for (int node = 0; node < size; node++) {
+                if (!deleted[node]) exact.offer(node, similarity(unitProbe, 0, node));
+            }
+            Set<Integer> exactNodes = new HashSet<>();
+            for (SearchHit hit : exact.toSortedList()) exactNodes.add(hit.row);
+            if (exactNodes.isEmpty()) {
+                recallSum += 1.0;
+                continue;
+            }
+            int overlap = 0;
+            for (SearchHit hit : search(probe, topK)) {
+                if (exactNodes.contains(hit.row)) overlap++;
+            }
+            recallSum += (double) overlap / exactNodes.size();
+        }
+        return recallSum / probes.size();
+    }
+
+    /**
+     * Rebuild the graph from its live nodes, dropping every tombstone
+     */
+    public synchronized void compact() {
+        ensureLoaded();
+        int oldSize = size;
+        int[] oldRows = rows;
+        float[][] oldOwnVectors = ownVectors;
+        String[] oldKeys = keys;
+        long[] oldHashes = contentHashes;
+        boolean[] oldDeleted = deleted;
+
+        size = 0;
+        deletedCount = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+        nodesByKey.clear();
+        rows = null;
+        ownVectors = null;
+        keys = null;
+        contentHashes = null;
+        deleted = null;
+        levels = null;
+        links = null;
+        allocate(Math.max(INITIAL_CAPACITY, oldSize - countTrue(oldDeleted, oldSize)));
+
+        // Live nodes keep pointing at the same matrix rows; no vector is copied
+        for (int node = 0; node < oldSize; node++) {
+            if (oldDeleted[node]) continue;
+            insertNode(oldKeys[node], oldHashes[node], oldRows[node], oldOwnVectors[node]);
+        }
+    }
+
+    private int greedyClosest(float[] query, int queryOffset, int start, int level) {
+        int current = start;
+        float currentScore = similarity(query, queryOffset, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                float score = similarity(query, queryOffset, neighbours[i]);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer; returns up to ef closest nodes as a min-heap
+     */
+    private Heap searchLayer(float[] query, int queryOffset, int[] entryPoints, int ef, int level) {
+        int epoch = nextEpoch();
+        Heap candidates = new Heap(true, ef);
+        Heap results = new Heap(false, ef + 1);
+
+        for (int entry : entryPoints) {
+            if (visitedMarks[entry] == epoch) continue;
+            visitedMarks[entry] = epoch;
+            float score = similarity(query, queryOffset, entry);
+            candidates.push(entry, score);
+            results.push(entry, score);
+            if (results.size > ef) results.pop();
+        }
+
+        while (candidates.size > 0) {
+            if (results.size >= ef && candidates.peekScore() < results.peekScore()) break;
+            int candidate = candidates.pop();
+            int[] neighbours = links[candidate][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (visitedMarks[neighbour] == epoch) continue;
+                visitedMarks[neighbour] = epoch;
+                float score = similarity(query, queryOffset, neighbour);
+                if (results.size < ef || score > results.peekScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size > ef) results.pop();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbour selection heuristic: take candidates best first, skipping any that is closer
+     * to an already selected neighbour than to the base. This keeps links pointing in different
+     * directions; skipped candidates fill remaining slots.
+     */
+    private int[] selectNeighbours(int base, int[] candidatesDescending, int count) {
+        int[] selected = new int[Math.min(count, candidatesDescending.length)];
+        int selectedCount = 0;
+        int[] skipped = new int[candidatesDescending.length];
+        int skippedCount = 0;
+
+        for (int candidate : candidatesDescending) {
+            if (selectedCount == selected.length) break;
+            if (candidate == base) continue;
+            float toBase = similarity(base, candidate);
+            boolean diverse = true;
+            for (int i = 0; i < selectedCount; i++) {
+                if (similarity(selected[i], candidate) > toBase) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[selectedCount++] = candidate;
+            } else {
+                skipped[skippedCount++] = candidate;
+            }
+        }
+        for (int i = 0; i < skippedCount && selectedCount < selected.length; i++) {
+            selected[selectedCount++] = skipped[i];
+        }
+        return Arrays.copyOf(selected, selectedCount);
+    }
+
+    private void addLink(int from, int to, int level) {
+        int[] neighbours = links[from][level];
+        int count = neighbours[0];
+        if (count < neighbours.length - 1) {
+            neighbours[count + 1] = to;
+            neighbours[0] = count + 1;
+            return;
+        }
+
+        // Full: re-select among the existing neighbours plus the new one
+        Heap pool = new Heap(false, count + 1);
+        for (int i = 1; i <= count; i++) {
+            pool.push(neighbours[i], similarity(from, neighbours[i]));
+        }
+        pool.push(to, similarity(from, to));
+        int[] kept = selectNeighbours(from, pool.idsByScoreDescending(), count);
+        neighbours[0] = kept.length;
+        System.arraycopy(kept, 0, neighbours, 1, kept.length);
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? params.m * 2 : params.m;
+    }
+
+    private float similarity(float[] query, int queryOffset, int node) {
+        return EmbeddingMatrix.dot(query, queryOffset, vectorOf(node), offsetOf(node), dimension);
+    }
+
+    private float similarity(int a, int b) {
+        return EmbeddingMatrix.dot(vectorOf(a), offsetOf(a), vectorOf(b), offsetOf(b), dimension);
+    }
+
+    /**
+     * Array holding the node's vector at {@link #offsetOf}; zeros for a tombstone whose vector
+     * is gone, which only makes it look far from everything
+     */
+    private float[] vectorOf(int node) {
+        if (rows[node] >= 0) return matrixData;
+        return ownVectors[node] != null ? ownVectors[node] : zeroVector;
+    }
+
+    private int offsetOf(int node) {
+        return rows[node] >= 0 ? rows[node] * dimension : 0;
+    }
+
+    private int nextEpoch() {
+        if (visitedMarks.length < size) {
+            visitedMarks = new int[keys.length];
+            visitEpoch = 0;
+        }
+        if (++visitEpoch == Integer.MAX_VALUE) {
+            Arrays.fill(visitedMarks, 0);
+            visitEpoch = 1;
+        }
+        return visitEpoch;
+    }
+
+    private void allocate(int capacity) {
+        rows = rows == null ? new int[capacity] : Arrays.copyOf(rows, capacity);
+        ownVectors = ownVectors == null ? new float[capacity][] : Arrays.copyOf(ownVectors, capacity);
+        keys = keys == null ? new String[capacity] : Arrays.copyOf(keys, capacity);
+        contentHashes = contentHashes == null ? new long[capacity] : Arrays.copyOf(contentHashes, capacity);
+        deleted = deleted == null ? new boolean[capacity] : Arrays.copyOf(deleted, capacity);
+        levels = levels == null ? new int[capacity] : Arrays.copyOf(levels, capacity);
+        links = links == null ? new int[capacity][][] : Arrays.copyOf(links, capacity);
+        if (size == 0) {
+            Arrays.fill(deleted, false);
+        }
+    }
+
+    private static int countTrue(boolean[] flags, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (flags[i]) count++;
+        }
+        return count;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (file == null || !file.exists()) return;
+        try {
+            read(file);
+        } catch (IOException | RuntimeException e) {
+            // Start over with an empty graph; the next sync rebuilds and rewrites it
+            size = 0;
+            deletedCount = 0;
+            entryPoint = -1;
+            maxLevel = -1;
+            nodesByKey.clear();
+            rows = null;
+            ownVectors = null;
+            keys = null;
+            contentHashes = null;
+            deleted = null;
+            levels = null;
+            links = null;
+            allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * Write the graph to the file, replacing it atomically. Vectors that live in the index are
+     * not written; only the graph's own copies are.
+     */
+    public synchronized void save(File target) throws IOException {
+        ensureLoaded();
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimension);
+            out.writeInt(params.m);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < size; node++) {
+                out.writeUTF(keys[node]);
+                out.writeLong(contentHashes[node]);
+                out.writeBoolean(deleted[node]);
+                out.writeInt(levels[node]);
+                float[] own = rows[node] < 0 ? ownVectors[node] : null;
+                out.writeBoolean(own != null);
+                if (own != null) {
+                    for (int i = 0; i < dimension; i++) {
+                        out.writeFloat(own[i]);
+                    }
+                }
+                for (int l = 0; l <= levels[node]; l++) {
+                    int[] neighbours = links[node][l];
+                    out.writeInt(neighbours[0]);
+                    for (int i = 1; i <= neighbours[0]; i++) {
+                        out.writeInt(neighbours[i]);
+                    }
+                }
+            }
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Failed to replace HNSW index: " + target.getAbsolutePath());
+        }
+    }
+
+    private void read(File source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != dimension
+                    || in.readInt() != params.m) {
+                throw new IOException("Incompatible HNSW index: " + source.getName());
+            }
+            int count = in.readInt();
+            int storedEntryPoint = in.readInt();
+            int storedMaxLevel = in.readInt();
+            allocate(Math.max(INITIAL_CAPACITY, count));
+
+            for (int node = 0; node < count; node++) {
+                keys[node] = in.readUTF();
+                contentHashes[node] = in.readLong();
+                deleted[node] = in.readBoolean();
+                levels[node] = in.readInt();
+                rows[node] = -1;
+                if (in.readBoolean()) {
+                    float[] own = new float[dimension];
+                    for (int i = 0; i < dimension; i++) {
+                        own[i] = in.readFloat();
+                    }
+                    ownVectors[node] = own;
+                }
+                links[node] = new int[levels[node] + 1][];
+                for (int l = 0; l <= levels[node]; l++) {
+                    int[] neighbours = new int[maxLinks(l) + 1];
+                    neighbours[0] = in.readInt();
+                    for (int i = 1; i <= neighbours[0]; i++) {
+                        neighbours[i] = in.readInt();
+                    }
+                    links[node][l] = neighbours;
+                }
+                if (deleted[node]) {
+                    deletedCount++;
+                } else {
+                    nodesByKey.put(keys[node], node);
+                }
+            }
+            size = count;
+            entryPoint = storedEntryPoint;
+            maxLevel = storedMaxLevel;
+        }
+    }
+
+    /**
+     * Binary heap of (node, score) pairs on primitive arrays; a max-heap pops the best score,
+     * a min-heap the worst
+     */
+    private static class Heap {
+        private final boolean max;
+        int[] ids;
+        float[] scores;
+        int size;
+
+        Heap(boolean max, int capacity) {
+            this.max = max;
+            this.ids = new int[Math.max(1, capacity)];
+            this.scores = new float[Math.max(1, capacity)];
+        }
+
+        void push(int id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        int pop() {
+            int top = ids[0];
+            int lastId = ids[--size];
+            float lastScore = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && before(scores[child + 1], scores[child])) child++;
+                if (!before(scores[child], lastScore)) break;
+                ids[i] = ids[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ids[i] = lastId;
+            scores[i] = lastScore;
+            return top;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        /**
+         * Node ids, best score first; drains a copy so the heap itself is left untouched
+         */
+        int[] idsByScoreDescending() {
+            Heap worstFirst = new Heap(false, size);
+            for (int i = 0; i < size; i++) worstFirst.push(ids[i], scores[i]);
+            int[] sorted = new int[size];
+            for (int i = size - 1; i >= 0; i--) sorted[i] = worstFirst.pop();
+            return sorted;
+        }
+    }
+}
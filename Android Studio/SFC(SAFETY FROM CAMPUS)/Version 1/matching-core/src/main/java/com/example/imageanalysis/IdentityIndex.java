@@ -0,0 +1,199 @@
+package com.example.imageanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One template per person on top of an {@link EmbeddingIndex}.
+ *
+ * Reference photos are grouped by identity (the {@code id} field of their JSON record) and each
+ * group is reduced to the normalized mean of its normalized embeddings. Candidate identities
+ * come either from ranking these centroids ({@link #search}) or from a photo search that has
+ * already run ({@link #rerank}); either way only the best few identities are then re-ranked by
+ * their individual photos.
+ */
+public class IdentityIndex {
+
+    /** Identities re-ranked by their individual photos, unless more results are requested */
+    public static final int DEFAULT_RERANK_IDENTITIES = 10;
+
+    private final EmbeddingIndex index;
+    private final String[] identityIds;
+    private final int[][] memberRows;
+    /** Identity of each row of the index; -1 for rows without an embedding */
+    private final int[] identityOfRow;
+    private final EmbeddingMatrix centroids;
+
+    private IdentityIndex(EmbeddingIndex index, String[] identityIds, int[][] memberRows, int[] identityOfRow,
+                          EmbeddingMatrix centroids) {
+        this.index = index;
+        this.identityIds = identityIds;
+        this.memberRows = memberRows;
+        this.identityOfRow = identityOfRow;
+        this.centroids = centroids;
+    }
+
+    /**
+     * Group the embedded rows of the index by identity
+     *
+     * @param identityByBaseName identity of each reference, keyed by file name without
+     *                           extension; references without an entry form their own identity
+     */
+    public static IdentityIndex build(EmbeddingIndex index, Map<String, String> identityByBaseName) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int row = 0; row < index.size(); row++) {
+            EmbeddingIndex.Entry entry = index.getEntry(row);
+            if (!entry.hasEmbedding) continue;
+            String identity = identityByBaseName.get(entry.baseName);
+            if (identity == null || identity.isEmpty()) identity = entry.baseName;
+            List<Integer> rows = groups.get(identity);
+            if (rows == null) {
+                rows = new ArrayList<>();
+                groups.put(identity, rows);
+            }
+            rows.add(row);
+        }
+
+        int dimension = index.getDimension();
+        EmbeddingMatrix photos = index.matrix();
+        EmbeddingMatrix centroids = new EmbeddingMatrix(dimension, groups.size());
+        String[] identityIds = new String[groups.size()];
+        int[][] memberRows = new int[groups.size()][];
+        int[] identityOfRow = new int[index.size()];
+        Arrays.fill(identityOfRow, -1);
+        float[] sum = new float[dimension];
+        float[] unit = new float[dimension];
+
+        int identity = 0;
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            identityIds[identity] = group.getKey();
+            int[] rows = new int[group.getValue().size()];
+            Arrays.fill(sum, 0f);
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = group.getValue().get(i);
+                identityOfRow[rows[i]] = identity;
+                photos.getRow(rows[i], unit);
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += unit[d];
+                }
+            }
+            memberRows[identity] = rows;
+            centroids.setRow(identity, sum);
+            identity++;
+        }
+        return new IdentityIndex(index, identityIds, memberRows, identityOfRow, centroids);
+    }
+
+    public EmbeddingIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Number of identities, i.e. comparisons per first-stage scan
+     */
+    public int size() {
+        return identityIds.length;
+    }
+
+    /**
+     * Identity of a row of the index, numbered from zero; -1 for rows without an embedding
+     */
+    public int identityOf(int row) {
+        return row >= 0 && row < identityOfRow.length ? identityOfRow[row] : -1;
+    }
+
+    /**
+     * The best identities for the probe, best first. Centroids pick the candidates; each
+     * candidate is then scored by its closest individual photo.
+     */
+    public List<IdentityMatch> search(float[] probe, int topK, int rerankIdentities) {
+        float[] unitProbe = EmbeddingMatrix.normalize(probe);
+        int identities = identityIds.length;
+        float[] centroidScores = new float[identities];
+        centroids.scan(unitProbe, 0, identities, centroidScores);
+
+        TopK candidates = new TopK(Math.max(topK, rerankIdentities));
+        for (int i = 0; i < identities; i++) {
+            candidates.offer(i, centroidScores[i]);
+        }
+        List<SearchHit> hits = candidates.toSortedList();
+        int[] candidateIds = new int[hits.size()];
+        for (int i = 0; i < candidateIds.length; i++) {
+            candidateIds[i] = hits.get(i).row;
+        }
+        return rerank(unitProbe, candidateIds, candidateIds.length, topK);
+    }
+
+    /**
+     * The best identities for the probe, taken from a photo search that already ran.
+     * Identities are visited in the order of their best photo hit, up to
+     * {@code rerankIdentities} of them, and each is scored by its closest individual photo.
+     *
+     * @param photoHits rows of the index, best first
+     */
+    public List<IdentityMatch> rerank(float[] probe, List<SearchHit> photoHits, int topK, int rerankIdentities) {
+        int limit = Math.max(topK, rerankIdentities);
+        int[] candidateIds = new int[Math.min(limit, photoHits.size())];
+        int count = 0;
+        for (SearchHit hit : photoHits) {
+            if (count == candidateIds.length) break;
+            int identity = identityOf(hit.row);
+            if (identity < 0 || contains(candidateIds, count, identity)) continue;
+            candidateIds[count++] = identity;
+        }
+        return rerank(EmbeddingMatrix.normalize(probe), candidateIds, count, topK);
+    }
+
+    private List<IdentityMatch> rerank(float[] unitProbe, int[] candidateIds, int count, int topK) {
+        EmbeddingMatrix photos = index.matrix();
+        List<IdentityMatch> reranked = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int identity = candidateIds[i];
+            int bestRow = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int row : memberRows[identity]) {
+                float score = photos.score(unitProbe, row);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestRow = row;
+                }
+            }
+            reranked.add(new IdentityMatch(identityIds[identity], bestRow, bestScore,
+                    centroids.score(unitProbe, identity), memberRows[identity].length));
+        }
+        reranked.sort((a, b) -> Double.compare(b.score, a.score));
+        return reranked.size() > topK ? new ArrayList<>(reranked.subList(0, topK)) : reranked;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * An identity ranked for a probe
+     */
+    public static class IdentityMatch {
+        public final String identityId;
+        /** Row of the identity's photo closest to the probe */
+        public final int bestRow;
+        /** Similarity of that photo */
+        public final double score;
+        /** Similarity of the identity's centroid */
+        public final double centroidScore;
+        public final int photoCount;
+
+        public IdentityMatch(String identityId, int bestRow, double score, double centroidScore, int photoCount) {
+            this.identityId = identityId;
+            this.bestRow = bestRow;
+            this.score = score;
+            this.centroidScore = centroidScore;
+            this.photoCount = photoCount;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.imageanalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Whole-image statistics over ARGB pixels: average brightness and dominant colours.
+ *
+ * Pixels are visited on a grid of every {@code step}-th column of every {@code rowStep}-th row.
+ * Callers that read the image row by row feed the sampled rows to an {@link Accumulator}.
+ */
+public final class ImageStatistics {
+
+    private static final String[] COLOR_NAMES = {
+            "White", "Black", "Red", "Green", "Blue", "Yellow", "Light", "Dark"
+    };
+
+    private ImageStatistics() {
+    }
+
+    /**
+     * Average of (r + g + b) / 3 over the sampled pixels, from 0 to 1; 0.5 when nothing was sampled
+     *
+     * @param pixels ARGB pixels, row-major with a stride of {@code width}
+     */
+    public static double averageBrightness(int[] pixels, int width, int height, int step, int rowStep) {
+        Accumulator accumulator = new Accumulator();
+        for (int y = 0; y < height; y += rowStep) {
+            accumulator.addBrightness(pixels, y * width, width, step);
+        }
+        return accumulator.averageBrightness();
+    }
+
+    /**
+     * Names of the most frequent colour categories among the sampled pixels, most frequent first
+     *
+     * @param pixels ARGB pixels, row-major with a stride of {@code width}
+     */
+    public static List<String> dominantColors(int[] pixels, int width, int height, int step, int rowStep,
+                                              int maxColors) {
+        Accumulator accumulator = new Accumulator();
+        for (int y = 0; y < height; y += rowStep) {
+            accumulator.addColors(pixels, y * width, width, step);
+        }
+        return accumulator.dominantColors(maxColors);
+    }
+
+    /**
+     * Basic colour name of one pixel
+     */
+    public static String colorName(int pixel) {
+        return COLOR_NAMES[colorCategory(pixel)];
+    }
+
+    private static int colorCategory(int pixel) {
+        int r = (pixel >> 16) & 0xff;
+        int g = (pixel >> 8) & 0xff;
+        int b = pixel & 0xff;
+
+        if (r > 200 && g > 200 && b > 200) return 0;
+        if (r < 50 && g < 50 && b < 50) return 1;
+        if (r > g && r > b) return 2;
+        if (g > r && g > b) return 3;
+        if (b > r && b > g) return 4;
+        if (r > 150 && g > 150 && b < 100) return 5;
+        if ((r + g + b) / 3 > 128) return 6;
+        return 7;
+    }
+
+    /**
+     * Brightness and colour totals collected one row at a time, so a caller can read a large
+     * image through a single row buffer
+     */
+    public static final class Accumulator {
+        private long brightness;
+        private int brightnessSamples;
+        private final int[] colorCounts = new int[COLOR_NAMES.length];
+
+        /**
+         * Add every {@code step}-th pixel of one row to the brightness
+         */
+        public void addBrightness(int[] pixels, int offset, int width, int step) {
+            for (int x = 0; x < width; x += step) {
+                int pixel = pixels[offset + x];
+                brightness += (((pixel >> 16) & 0xff) + ((pixel >> 8) & 0xff) + (pixel & 0xff)) / 3;
+                brightnessSamples++;
+            }
+        }
+
+        /**
+         * Count the colour category of every {@code step}-th pixel of one row
+         */
+        public void addColors(int[] pixels, int offset, int width, int step) {
+            for (int x = 0; x < width; x += step) {
+                colorCounts[colorCategory(pixels[offset + x])]++;
+            }
+        }
+
+        /**
+         * From 0 to 1; 0.5 when nothing was added
+         */
+        public double averageBrightness() {
+            return brightnessSamples > 0 ? (double) brightness / brightnessSamples / 255.0 : 0.5;
+        }
+
+        /**
+         * Names of the most frequent colour categories so far, most frequent first
+         */
+        public List<String> dominantColors(int maxColors) {
+            int[] counts = colorCounts.clone();
+            List<String> dominant = new ArrayList<>(maxColors);
+            while (dominant.size() < maxColors) {
+                int best = -1;
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0 && (best < 0 || counts[i] > counts[best])) best = i;
+                }
+                if (best < 0) break;
+                dominant.add(COLOR_NAMES[best]);
+                counts[best] = 0;
+            }
+            return dominant;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.imageanalysis;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Int8 copy of an {@link EmbeddingIndex} for scanning large galleries.
+ *
+ * Every vector is unit-normalized and stored as one scale plus int8 components, a quarter of
+ * the float size. Searches score all rows with an integer dot product, then re-score only the
+ * rows within a margin of the K-th best exactly in float from the index. The approximate
+ * scores, the probe copies and the two top-K heaps live in per-thread buffers, so repeated
+ * searches with the same K allocate only the result.
+ */
+public class QuantizedEmbeddings {
+
+    public static final float DEFAULT_MARGIN = 0.05f;
+
+    private final EmbeddingIndex index;
+    private final int dimension;
+    private final int rows;
+    private final byte[] codes;
+    private final float[] scales;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch(rows, dimension);
+        }
+    };
+
+    private QuantizedEmbeddings(EmbeddingIndex index, byte[] codes, float[] scales) {
+        this.index = index;
+        this.dimension = index.getDimension();
+        this.rows = index.size();
+        this.codes = codes;
+        this.scales = scales;
+    }
+
+    /**
+     * Quantize every vector of the index. Rows without an embedding get a zero scale and
+     * therefore never score above zero.
+     */
+    public static QuantizedEmbeddings build(EmbeddingIndex index) {
+        int dimension = index.getDimension();
+        int rows = index.size();
+        byte[] codes = new byte[rows * dimension];
+        float[] scales = new float[rows];
+        float[] vector = new float[dimension];
+
+        for (int row = 0; row < rows; row++) {
+            if (!index.getEntry(row).hasEmbedding) continue;
+            index.getVector(row, vector);
+            scales[row] = quantize(vector, codes, row * dimension);
+        }
+        return new QuantizedEmbeddings(index, codes, scales);
+    }
+
+    /**
+     * Normalize the vector and write it as int8 codes; returns the scale that maps codes back
+     */
+    static float quantize(float[] vector, byte[] codes, int offset) {
+        double norm = 0;
+        float maxAbs = 0;
+        for (float v : vector) {
+            norm += v * v;
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (norm == 0 || maxAbs == 0) {
+            return 0f;
+        }
+        float unit = (float) (1.0 / Math.sqrt(norm));
+        float scale = maxAbs * unit / 127f;
+        for (int i = 0; i < vector.length; i++) {
+            codes[offset + i] = (byte) Math.round(vector[i] * unit / scale);
+        }
+        return scale;
+    }
+
+    public EmbeddingIndex getIndex() {
+        return index;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Bytes held by the int8 representation
+     */
+    public long getSizeBytes() {
+        return codes.length + 4L * scales.length;
+    }
+
+    /**
+     * Top-K rows for the probe. Rows whose approximate score is within {@code margin} of the
+     * K-th best approximate score are re-scored exactly; the rest never touch the float vectors.
+     */
+    public List<SearchHit> search(float[] probe, int topK, float margin) {
+        Scratch buffers = scratch.get();
+        byte[] probeCodes = buffers.probeCodes;
+        float probeScale = quantize(probe, probeCodes, 0);
+        if (probeScale == 0 || topK <= 0) {
+            return new ArrayList<>();
+        }
+
+        float[] approx = buffers.approx;
+        TopK approxTop = buffers.approxTop(topK);
+        for (int row = 0; row < rows; row++) {
+            approx[row] = dotInt8(probeCodes, row) * probeScale * scales[row];
+            approxTop.offer(row, approx[row]);
+        }
+
+        double cutoff = approxTop.size() < topK ? Double.NEGATIVE_INFINITY : approxTop.threshold() - margin;
+        float[] unitProbe = buffers.unitProbe;
+        EmbeddingMatrix.normalize(probe, 0, unitProbe, 0, dimension);
+        float[] vector = buffers.vector;
+        TopK exactTop = buffers.exactTop(topK);
+        for (int row = 0; row < rows; row++) {
+            if (approx[row] < cutoff || scales[row] == 0) continue;
+            index.getVector(row, vector);
+            exactTop.offer(row, EmbeddingMatrix.cosine(unitProbe, vector));
+        }
+        return exactTop.toSortedList();
+    }
+
+    /**
+     * Integer dot product between the probe codes and one stored row
+     */
+    int dotInt8(byte[] probeCodes, int row) {
+        int offset = row * dimension;
+        int sum0 = 0;
+        int sum1 = 0;
+        int sum2 = 0;
+        int sum3 = 0;
+        int i = 0;
+        for (; i + 3 < dimension; i += 4) {
+            sum0 += probeCodes[i] * codes[offset + i];
+            sum1 += probeCodes[i + 1] * codes[offset + i + 1];
+            sum2 += probeCodes[i + 2] * codes[offset + i + 2];
+            sum3 += probeCodes[i + 3] * codes[offset + i + 3];
+        }
+        for (; i < dimension; i++) {
+            sum0 += probeCodes[i] * codes[offset + i];
+        }
+        return sum0 + sum1 + sum2 + sum3;
+    }
+
+    /**
+     * Compare quantized rankings with the exact float ranking for the given probes
+     */
+    public AccuracyReport evaluate(List<float[]> probes, int topK, float margin) {
+        AccuracyReport report = new AccuracyReport(topK);
+        float[] vector = new float[dimension];
+
+        for (float[] probe : probes) {
+            float[] unitProbe = EmbeddingMatrix.normalize(probe);
+            TopK exactTop = new TopK(topK);
+            for (int row = 0; row < rows; row++) {
+                if (scales[row] == 0) continue;
+                index.getVector(row, vector);
+                exactTop.offer(row, EmbeddingMatrix.cosine(unitProbe, vector));
+            }
+            List<SearchHit> exact = exactTop.toSortedList();
+            List<SearchHit> quantized = search(probe, topK, margin);
+
+            Set<Integer> exactRows = new HashSet<>();
+            for (SearchHit hit : exact) exactRows.add(hit.row);
+            int overlap = 0;
+            for (SearchHit hit : quantized) {
+                if (exactRows.contains(hit.row)) overlap++;
+            }
+
+            report.probes++;
+            report.recallSum += exact.isEmpty() ? 1.0 : (double) overlap / exact.size();
+            if (!exact.isEmpty() && !quantized.isEmpty() && exact.get(0).row == quantized.get(0).row) {
+                report.top1Agreements++;
+            }
+
+            // Approximate-score error on the exact top hit shows how much margin is needed
+            if (!exact.isEmpty()) {
+                byte[] probeCodes = new byte[dimension];
+                float probeScale = quantize(probe, probeCodes, 0);
+                SearchHit top = exact.get(0);
+                double approx = dotInt8(probeCodes, top.row) * probeScale * scales[top.row];
+                report.maxScoreError = Math.max(report.maxScoreError, Math.abs(approx - top.score));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Buffers one thread reuses across searches
+     */
+    private static class Scratch {
+        final float[] approx;
+        final byte[] probeCodes;
+        final float[] unitProbe;
+        final float[] vector;
+        private TopK approxTop;
+        private TopK exactTop;
+
+        Scratch(int rows, int dimension) {
+            approx = new float[rows];
+            probeCodes = new byte[dimension];
+            unitProbe = new float[dimension];
+            vector = new float[dimension];
+        }
+
+        /**
+         * Empty heap for the approximate scores; reallocated only when K changes
+         */
+        TopK approxTop(int topK) {
+            approxTop = cleared(approxTop, topK);
+            return approxTop;
+        }
+
+        /**
+         * Empty heap for the exact re-scores; reallocated only when K changes
+         */
+        TopK exactTop(int topK) {
+            exactTop = cleared(exactTop, topK);
+            return exactTop;
+        }
+
+        private static TopK cleared(TopK heap, int topK) {
+            if (heap == null || heap.capacity() != topK) {
+                return new TopK(topK);
+            }
+            heap.clear();
+            return heap;
+        }
+    }
+
+    /**
+     * How closely the quantized search reproduces the float ranking
+     */
+    public static class AccuracyReport {
+        public final int topK;
+        public int probes;
+        public int top1Agreements;
+        public double recallSum;
+        public double maxScoreError;
+
+        public AccuracyReport(int topK) {
+            this.topK = topK;
+        }
+
+        public double getRecallAtK() {
+            return probes > 0 ? recallSum / probes : 1.0;
+        }
+
+        public double getTop1Agreement() {
+            return probes > 0 ? (double) top1Agreements / probes : 1.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d probes: recall@%d %.3f, top-1 agreement %.3f, max score error %.4f",
+                    probes, topK, getRecallAtK(), getTop1Agreement(), maxScoreError);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.imageanalysis;
+
+/**
+ * One ranked row of an embedding search
+ */
+public class SearchHit {
+    public final int row;
+    public final double score;
+
+    public SearchHit(int row, double score) {
+        this.row = row;
+        this.score = score;
+    }
+}
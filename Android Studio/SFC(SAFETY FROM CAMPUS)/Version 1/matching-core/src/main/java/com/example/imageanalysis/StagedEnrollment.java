@@ -0,0 +1,276 @@
+package com.example.imageanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Staged pipeline that turns reference image files into embeddings.
+ *
+ * Decoding runs on an I/O pool, face detection and embedding on their own workers, and the
+ * stages are joined by bounded queues. Embedding workers batch whatever faces are waiting. A full
+ * queue blocks the stage feeding it, so the number of decoded images alive at any time is capped
+ * no matter how large the folder is.
+ *
+ * Every file comes out of the pipeline exactly once, even when a stage throws or runs out of
+ * memory on it: the file just ends without an embedding. The stages themselves are left to
+ * subclasses, so the flow runs on a plain JVM with fake models.
+ *
+ * @param <T> decoded image, and later the face cut from it
+ */
+public abstract class StagedEnrollment<T> implements EmbeddingIndex.BatchEmbedder {
+
+    private final int decodeThreads;
+    private final int detectThreads;
+    private final int embedThreads;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private ProgressListener listener;
+    private Stats lastStats;
+
+    protected StagedEnrollment(int decodeThreads, int detectThreads, int embedThreads,
+                               int queueCapacity, int maxBatchSize) {
+        this.decodeThreads = decodeThreads;
+        this.detectThreads = detectThreads;
+        this.embedThreads = embedThreads;
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Decode the file for face detection; null when it cannot be decoded
+     */
+    protected abstract T decode(File file) throws Exception;
+
+    /**
+     * The face to embed, or null when the image has none. Returning anything other than
+     * {@code image} releases it.
+     */
+    protected abstract T locateFace(File file, T image) throws Exception;
+
+    /**
+     * Embeddings aligned with {@code faces}, null where a face could not be embedded
+     */
+    protected abstract float[][] embed(List<T> faces) throws Exception;
+
+    /**
+     * Free an image no stage needs anymore
+     */
+    protected abstract void release(T image);
+
+    /**
+     * Called on the stage's worker when a file fails; the file is then enrolled without an
+     * embedding
+     */
+    protected void onFailure(String stage, File file, Throwable error) {
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    public Stats getLastStats() {
+        return lastStats;
+    }
+
+    /**
+     * Embed every file, blocking until all of them went through the pipeline.
+     * The listener runs on the calling thread; an exception thrown from it aborts the run.
+     */
+    @Override
+    public float[][] embedAll(List<File> imageFiles) throws IOException {
+        int total = imageFiles.size();
+        float[][] embeddings = new float[total][];
+        if (total == 0) {
+            return embeddings;
+        }
+
+        BlockingQueue<WorkItem<T>> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<WorkItem<T>> detected = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<WorkItem<T>> done = new LinkedBlockingQueue<>();
+
+        ExecutorService decodePool = Executors.newFixedThreadPool(decodeThreads);
+        ExecutorService detectPool = Executors.newFixedThreadPool(detectThreads);
+        ExecutorService embedPool = Executors.newFixedThreadPool(embedThreads);
+        long startNanos = System.nanoTime();
+
+        try {
+            for (int i = 0; i < total; i++) {
+                WorkItem<T> item = new WorkItem<>(i, imageFiles.get(i));
+                decodePool.execute(() -> decodeStage(item, decoded));
+            }
+            for (int i = 0; i < detectThreads; i++) {
+                detectPool.execute(() -> detectLoop(decoded, detected));
+            }
+            for (int i = 0; i < embedThreads; i++) {
+                embedPool.execute(() -> embedLoop(detected, done));
+            }
+
+            // Every file yields exactly one finished item, so counting them tells us when to stop
+            for (int completed = 1; completed <= total; completed++) {
+                WorkItem<T> item = done.take();
+                embeddings[item.index] = item.embedding;
+                if (listener != null) {
+                    double seconds = (System.nanoTime() - startNanos) / 1e9;
+                    listener.onProgress(completed, total, seconds > 0 ? completed / seconds : 0);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Enrollment interrupted", e);
+        } finally {
+            // Idle stage workers are parked in take(); interrupting them ends their loops
+            decodePool.shutdownNow();
+            detectPool.shutdownNow();
+            embedPool.shutdownNow();
+        }
+
+        lastStats = new Stats(total, System.nanoTime() - startNanos);
+        return embeddings;
+    }
+
+    private void decodeStage(WorkItem<T> item, BlockingQueue<WorkItem<T>> decoded) {
+        try {
+            item.image = decode(item.file);
+        } catch (Throwable t) {
+            onFailure("decode", item.file, t);
+        } finally {
+            try {
+                decoded.put(item);
+            } catch (InterruptedException e) {
+                releaseImage(item);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void detectLoop(BlockingQueue<WorkItem<T>> decoded, BlockingQueue<WorkItem<T>> detected) {
+        try {
+            while (true) {
+                WorkItem<T> item = decoded.take();
+                if (item.image != null) {
+                    T face = null;
+                    try {
+                        face = locateFace(item.file, item.image);
+                    } catch (InterruptedException e) {
+                        releaseImage(item);
+                        throw e;
+                    } catch (Throwable t) {
+                        onFailure("detect", item.file, t);
+                    }
+                    if (face != item.image) {
+                        releaseImage(item);
+                        item.image = face;
+                    }
+                }
+                detected.put(item);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void embedLoop(BlockingQueue<WorkItem<T>> detected, BlockingQueue<WorkItem<T>> done) {
+        List<WorkItem<T>> batch = new ArrayList<>();
+        List<T> faces = new ArrayList<>();
+        try {
+            while (true) {
+                // Wait for one item, then take whatever else is ready to fill a batch
+                batch.add(detected.take());
+                detected.drainTo(batch, maxBatchSize - 1);
+
+                for (WorkItem<T> item : batch) {
+                    if (item.image != null) {
+                        faces.add(item.image);
+                    }
+                }
+                float[][] embeddings = null;
+                try {
+                    embeddings = embed(faces);
+                    if (embeddings != null && embeddings.length != faces.size()) {
+                        throw new IllegalStateException(embeddings.length + " embeddings for "
+                                + faces.size() + " faces");
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Throwable t) {
+                    embeddings = null;
+                    onFailure("embed", batch.get(0).file, t);
+                }
+
+                int face = 0;
+                for (WorkItem<T> item : batch) {
+                    if (item.image != null) {
+                        item.embedding = embeddings != null ? embeddings[face] : null;
+                        face++;
+                    }
+                    releaseImage(item);
+                    done.put(item);
+                }
+                batch.clear();
+                faces.clear();
+            }
+        } catch (InterruptedException e) {
+            for (WorkItem<T> item : batch) {
+                releaseImage(item);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void releaseImage(WorkItem<T> item) {
+        if (item.image != null) {
+            release(item.image);
+            item.image = null;
+        }
+    }
+
+    private static class WorkItem<T> {
+        final int index;
+        final File file;
+        T image;
+        float[] embedding;
+
+        WorkItem(int index, File file) {
+            this.index = index;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Throughput of a finished run
+     */
+    public static class Stats {
+        public final int images;
+        public final long elapsedNanos;
+
+        public Stats(int images, long elapsedNanos) {
+            this.images = images;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getImagesPerSecond() {
+            return elapsedNanos > 0 ? images / (elapsedNanos / 1e9) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "Enrolled %d images in %.1fs (%.1f images/sec)",
+                    images, elapsedNanos / 1e9, getImagesPerSecond());
+        }
+    }
+
+    /**
+     * Receives (images finished, total images, images per second so far)
+     */
+    public interface ProgressListener {
+        void onProgress(int completed, int total, double imagesPerSecond);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.imageanalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the K highest-scoring rows seen so far.
+ *
+ * A binary min-heap over primitive arrays: the weakest kept row sits at the root, so most
+ * offers are rejected with a single comparison and nothing is allocated while scanning.
+ */
+public class TopK {
+
+    private final int capacity;
+    private final int[] rows;
+    private final double[] scores;
+    private int size;
+
+    public TopK(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.rows = new int[this.capacity];
+        this.scores = new double[this.capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Score a row must beat to enter; negative infinity while there is still room
+     */
+    public double threshold() {
+        return size < capacity ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * @return true when the row was kept
+     */
+    public boolean offer(int row, double score) {
+        if (size < capacity) {
+            int i = size++;
+            // Sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) break;
+                rows[i] = rows[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            rows[i] = row;
+            scores[i] = score;
+            return true;
+        }
+        if (capacity == 0 || score <= scores[0]) {
+            return false;
+        }
+        // Replace the root and sift down
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && scores[child + 1] < scores[child]) child++;
+            if (scores[child] >= score) break;
+            rows[i] = rows[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        rows[i] = row;
+        scores[i] = score;
+        return true;
+    }
+
+    /**
+     * Kept rows, best first
+     */
+    public List<SearchHit> toSortedList() {
+        List<SearchHit> hits = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            hits.add(new SearchHit(rows[i], scores[i]));
+        }
+        hits.sort((a, b) -> Double.compare(b.score, a.score));
+        return hits;
+    }
+}
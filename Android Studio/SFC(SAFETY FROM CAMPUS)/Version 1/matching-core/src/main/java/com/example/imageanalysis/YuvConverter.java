@@ -0,0 +1,90 @@
+package com.example.imageanalysis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads face crops straight out of YUV_420_888 camera frames.
+ *
+ * Only the pixels under a face box are converted, and the frame rotation is applied while
+ * sampling, so a live frame never goes through a full-frame bitmap or a JPEG round trip.
+ * Kept free of Android classes so it runs on the JVM.
+ */
+public final class YuvConverter {
+
+    private YuvConverter() {
+    }
+
+    /**
+     * Width of the frame as it appears after rotating by {@code rotationDegrees}
+     */
+    public static int uprightWidth(int width, int height, int rotationDegrees) {
+        return rotationDegrees == 90 || rotationDegrees == 270 ? height : width;
+    }
+
+    /**
+     * Height of the frame as it appears after rotating by {@code rotationDegrees}
+     */
+    public static int uprightHeight(int width, int height, int rotationDegrees) {
+        return rotationDegrees == 90 || rotationDegrees == 270 ? width : height;
+    }
+
+    /**
+     * Convert the box [left, right) x [top, bottom), given in upright coordinates, into ARGB
+     * pixels with a stride of {@code right - left}. The box must lie inside the upright frame.
+     *
+     * @param width           sensor width of the frame, before rotation
+     * @param height          sensor height of the frame, before rotation
+     * @param rotationDegrees clockwise rotation that makes the frame upright: 0, 90, 180 or 270
+     * @param out             receives at least {@code (right - left) * (bottom - top)} pixels
+     */
+    public static void cropToArgb(ByteBuffer y, int yRowStride,
+                                  ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                  int width, int height, int rotationDegrees,
+                                  int left, int top, int right, int bottom, int[] out) {
+        int index = 0;
+        for (int uy = top; uy < bottom; uy++) {
+            for (int ux = left; ux < right; ux++) {
+                // Map the upright pixel back to where the sensor wrote it
+                int sx;
+                int sy;
+                switch (rotationDegrees) {
+                    case 90:
+                        sx = uy;
+                        sy = height - 1 - ux;
+                        break;
+                    case 180:
+                        sx = width - 1 - ux;
+                        sy = height - 1 - uy;
+                        break;
+                    case 270:
+                        sx = width - 1 - uy;
+                        sy = ux;
+                        break;
+                    default:
+                        sx = ux;
+                        sy = uy;
+                        break;
+                }
+                int uvIndex = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+                out[index++] = toArgb(y.get(sy * yRowStride + sx) & 0xFF,
+                        u.get(uvIndex) & 0xFF, v.get(uvIndex) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Full-range BT.601, the conversion camera JPEGs use, in 10-bit fixed point
+     */
+    static int toArgb(int y, int u, int v) {
+        u -= 128;
+        v -= 128;
+        int r = y + ((1436 * v) >> 10);
+        int g = y - ((352 * u + 731 * v) >> 10);
+        int b = y + ((1815 * u) >> 10);
+        return 0xFF000000 | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.imageanalysis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the journaled embedding index.
+ */
+public class EmbeddingIndexTest {
+
+    private static final int DIMENSION = 4;
+
+    private File folder;
+    private File indexFile;
+    private File journalFile;
+    private final List<String> embedded = new ArrayList<>();
+
+    /** Embeds a file by its first bytes, so equal content gives equal vectors */
+    private final EmbeddingIndex.BatchEmbedder embedder = files -> {
+        float[][] embeddings = new float[files.size()][];
+        for (int i = 0; i < files.size(); i++) {
+            embedded.add(files.get(i).getName());
+            embeddings[i] = vectorOf(read(files.get(i)));
+        }
+        return embeddings;
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("references", "");
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdir());
+        indexFile = new File(folder, EmbeddingIndex.FILE_NAME);
+        journalFile = new File(folder, EmbeddingIndex.FILE_NAME + ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void putAndRemove_surviveReopen() throws IOException {
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, DIMENSION)
+                .put("a.jpg", 1, 10, 100, new float[]{1, 0, 0, 0})
+                .put("b.jpg", 2, 10, 100, new float[]{0, 1, 0, 0})
+                .put("a.jpg", 3, 20, 100, new float[]{0, 0, 1, 0})
+                .remove("b.jpg");
+
+        EmbeddingIndex reopened = EmbeddingIndex.open(indexFile, DIMENSION);
+
+        assertFalse("puts and removes never write the index file", indexFile.exists());
+        for (EmbeddingIndex candidate : new EmbeddingIndex[]{index, reopened}) {
+            int row = candidate.findRow("a.jpg");
+            assertEquals(3, candidate.getEntry(row).contentHash);
+            assertArrayEquals(new float[]{0, 0, 1, 0}, candidate.getVector(row, new float[DIMENSION]), 0);
+            assertFalse(candidate.getEntry(candidate.findRow("b.jpg")).hasEmbedding);
+        }
+        assertSame(reopened, reopened.remove("missing.jpg"));
+    }
+
+    @Test
+    public void tornJournal_keepsCompleteRecordsAndTruncatesTheRest() throws IOException {
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, DIMENSION)
+                .put("a.jpg", 1, 10, 100, new float[]{1, 0, 0, 0})
+                .put("b.jpg", 2, 10, 100, new float[]{0, 1, 0, 0});
+        long completeBytes = journalFile.length();
+        index.put("c.jpg", 3, 10, 100, new float[]{0, 0, 1, 0});
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile, "rw")) {
+            // A crash in the middle of the last record's vector
+            journal.setLength(journal.length() - 5);
+        }
+
+        EmbeddingIndex reopened = EmbeddingIndex.open(indexFile, DIMENSION);
+
+        assertTrue(reopened.getEntry(reopened.findRow("a.jpg")).hasEmbedding);
+        assertTrue(reopened.getEntry(reopened.findRow("b.jpg")).hasEmbedding);
+        assertEquals(-1, reopened.findRow("c.jpg"));
+        assertEquals(completeBytes, journalFile.length());
+
+        // New records land after the last complete one and replay normally
+        reopened.put("d.jpg", 4, 10, 100, new float[]{0, 0, 0, 1});
+        EmbeddingIndex again = EmbeddingIndex.open(indexFile, DIMENSION);
+        assertArrayEquals(new float[]{0, 0, 0, 1},
+                again.getVector(again.findRow("d.jpg"), new float[DIMENSION]), 0);
+        assertEquals(3, again.size());
+    }
+
+    @Test
+    public void sync_afterPutChangesNothingAndNeverRewritesTheIndex() throws IOException {
+        File a = write("a.jpg", "alpha");
+        File b = write("b.jpg", "bravo");
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, DIMENSION).sync(new File[]{a, b}, embedder);
+        assertEquals(2, embedded.size());
+
+        File c = write("c.jpg", "charlie");
+        index = index.put(c.getName(), EmbeddingIndex.contentHash(c), c.lastModified(), c.length(),
+                vectorOf(read(c)));
+        index = index.remove(b.getName());
+        assertTrue(b.delete());
+        embedded.clear();
+
+        EmbeddingIndex synced = index.sync(new File[]{a, c}, embedder);
+
+        assertSame(index, synced);
+        assertTrue(embedded.isEmpty());
+        assertFalse(indexFile.exists());
+    }
+
+    @Test
+    public void sync_journalsNewChangedRenamedAndRemovedFiles() throws IOException {
+        File a = write("a.jpg", "alpha");
+        File b = write("b.jpg", "bravo");
+        File c = write("c.jpg", "charlie");
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, DIMENSION).sync(new File[]{a, b, c}, embedder);
+        embedded.clear();
+
+        File changed = write("a.jpg", "alpine!");
+        File renamed = new File(folder, "b2.jpg");
+        assertTrue(b.renameTo(renamed));
+        assertTrue(c.delete());
+        File added = write("d.jpg", "delta");
+
+        index = index.sync(new File[]{changed, renamed, added}, embedder);
+
+        assertEquals("renamed copies reuse their vector", 2, embedded.size());
+        assertTrue(embedded.contains("a.jpg"));
+        assertTrue(embedded.contains("d.jpg"));
+        assertArrayEquals(vectorOf(read(changed)), index.getVector(index.findRow("a.jpg"), new float[DIMENSION]), 0);
+        assertArrayEquals(vectorOf("bravo".getBytes(StandardCharsets.UTF_8)),
+                index.getVector(index.findRow("b2.jpg"), new float[DIMENSION]), 0);
+        assertFalse(index.getEntry(index.findRow("b.jpg")).hasEmbedding);
+        assertFalse(index.getEntry(index.findRow("c.jpg")).hasEmbedding);
+
+        EmbeddingIndex reopened = EmbeddingIndex.open(indexFile, DIMENSION);
+        assertSame(reopened, reopened.sync(new File[]{changed, renamed, added}, embedder));
+    }
+
+    @Test
+    public void compact_foldsTheJournalIntoTheIndexFile() throws IOException {
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, DIMENSION);
+        for (int i = 0; i < 40; i++) {
+            index = index.put("ref" + i + ".jpg", i, 10, 100, new float[]{i, 1, 0, 0});
+        }
+        assertFalse("too few changes to be worth a rewrite", index.needsCompaction());
+        for (int i = 0; i < 30; i++) {
+            index = index.remove("ref" + i + ".jpg");
+        }
+        assertTrue(index.needsCompaction());
+
+        EmbeddingIndex compacted = index.compact();
+
+        assertTrue(indexFile.exists());
+        assertFalse(journalFile.exists());
+        assertFalse(compacted.needsCompaction());
+        assertEquals("tombstones are dropped", 10, compacted.size());
+        EmbeddingIndex reopened = EmbeddingIndex.open(indexFile, DIMENSION);
+        assertEquals(10, reopened.size());
+        for (int i = 30; i < 40; i++) {
+            assertArrayEquals(new float[]{i, 1, 0, 0},
+                    reopened.getVector(reopened.findRow("ref" + i + ".jpg"), new float[DIMENSION]), 0);
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    private static float[] vectorOf(byte[] content) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < content.length; i++) {
+            vector[i % DIMENSION] += content[i];
+        }
+        return vector;
+    }
+}
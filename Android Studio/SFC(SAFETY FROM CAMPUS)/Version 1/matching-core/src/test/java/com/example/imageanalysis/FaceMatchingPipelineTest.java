@@ -0,0 +1,220 @@
+package com.example.imageanalysis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the matching flow end to end with fake models, so no device is needed.
+ */
+public class FaceMatchingPipelineTest {
+
+    /** Side of a fake face crop */
+    private static final int FACE = 8;
+
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        indexFile = File.createTempFile("embeddings", ".idx");
+        assertTrue(indexFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        new File(indexFile.getPath() + ".journal").delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void match_ranksTheReferenceWithTheSameFaceFirst() throws Exception {
+        QuadrantEmbedder embedder = new QuadrantEmbedder();
+        int[] alice = face(0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0xFFFFFFFF);
+        int[] bob = face(0xFF000000, 0xFF808080, 0xFFFFFF00, 0xFF00FFFF);
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, embedder.getDimension())
+                .put("alice.jpg", 1, 1, 1, embedder.embed(alice, FACE, FACE))
+                .put("bob.jpg", 2, 1, 1, embedder.embed(bob, FACE, FACE))
+                .put("empty.jpg", 3, 1, 1, null);
+
+        // Bob's face pasted into a larger image at (10, 5)
+        int width = 40;
+        int height = 30;
+        int[] image = new int[width * height];
+        Arrays.fill(image, 0xFF404040);
+        for (int y = 0; y < FACE; y++) {
+            System.arraycopy(bob, y * FACE, image, (5 + y) * width + 10, FACE);
+        }
+        FaceLocator locator = (pixels, w, h) -> Arrays.asList(
+                new FaceBox(10, 5, 10 + FACE, 5 + FACE),
+                new FaceBox(100, 100, 120, 120));
+
+        List<FaceMatchingPipeline.FaceResult> results =
+                new FaceMatchingPipeline(locator, embedder).match(image, width, height, index, 5);
+
+        assertEquals("box outside the image is dropped", 1, results.size());
+        FaceMatchingPipeline.FaceResult result = results.get(0);
+        assertEquals(FACE, result.box.width());
+        assertEquals("only embedded references are ranked", 2, result.hits.size());
+        assertEquals("bob", index.getEntry(result.hits.get(0).row).baseName);
+        assertEquals(1.0, result.hits.get(0).score, 1e-5);
+        assertTrue(result.hits.get(1).score < result.hits.get(0).score);
+    }
+
+    @Test
+    public void search_matchesBruteForceCosine() throws IOException {
+        FaceEmbedder embedder = new QuadrantEmbedder();
+        Random random = new Random(7);
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, embedder.getDimension());
+        float[][] vectors = new float[50][embedder.getDimension()];
+        for (int i = 0; i < vectors.length; i++) {
+            for (int d = 0; d < vectors[i].length; d++) {
+                vectors[i][d] = random.nextFloat() - 0.5f;
+            }
+            index = index.put("ref" + i + ".jpg", i, 1, 1, vectors[i]);
+        }
+        float[] probe = vectors[17].clone();
+        probe[0] += 0.05f;
+
+        List<SearchHit> hits = FaceMatchingPipeline.search(probe, index, 3);
+
+        assertEquals(3, hits.size());
+        assertEquals(17, hits.get(0).row);
+        for (SearchHit hit : hits) {
+            assertEquals(EmbeddingMatrix.cosine(probe, vectors[hit.row]), hit.score, 1e-5);
+        }
+    }
+
+    @Test
+    public void search_manyProbesRankLikeOneAtATime() throws IOException {
+        Random random = new Random(3);
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, 12);
+        for (int i = 0; i < 600; i++) {
+            index = index.put("ref" + i + ".jpg", i, 1, 1, i % 50 == 0 ? null : gaussian(random, 12));
+        }
+        float[][] probes = {gaussian(random, 12), gaussian(random, 12), gaussian(random, 12)};
+
+        List<List<SearchHit>> rankings = FaceMatchingPipeline.search(probes, index, 4);
+
+        assertEquals(probes.length, rankings.size());
+        for (int p = 0; p < probes.length; p++) {
+            List<SearchHit> single = FaceMatchingPipeline.search(probes[p], index, 4);
+            assertEquals(single.size(), rankings.get(p).size());
+            for (int i = 0; i < single.size(); i++) {
+                assertEquals(single.get(i).row, rankings.get(p).get(i).row);
+                assertEquals(single.get(i).score, rankings.get(p).get(i).score, 0);
+            }
+        }
+    }
+
+    @Test
+    public void search_earlyExitNeedsAnotherPersonAsRunnerUp() throws IOException {
+        Random random = new Random(5);
+        float[] alice = gaussian(random, 64);
+        EmbeddingIndex index = EmbeddingIndex.open(indexFile, 64);
+        for (int i = 0; i < 600; i++) {
+            float[] vector = gaussian(random, 64);
+            if (i == 10 || i == 20) {
+                // Two photos of the same person, both among the recent matches
+                vector = alice.clone();
+                vector[i] += 0.2f;
+            }
+            index = index.put("ref" + i + ".jpg", i, 1, 1, vector);
+        }
+        Map<String, String> identityByBaseName = new HashMap<>();
+        identityByBaseName.put("ref10", "alice");
+        identityByBaseName.put("ref20", "alice");
+        IdentityIndex identities = IdentityIndex.build(index, identityByBaseName);
+        FaceMatchingPipeline.EarlyExit earlyExit = new FaceMatchingPipeline.EarlyExit(0.9, 0.1);
+        int[] recent = {10, 20};
+
+        List<Integer> exits = new ArrayList<>();
+        FaceMatchingPipeline.ScanListener listener = new FaceMatchingPipeline.ScanListener() {
+            @Override
+            public boolean onProgress(int scanned, int total, SearchHit bestSoFar) {
+                return true;
+            }
+
+            @Override
+            public void onEarlyExit(int scanned, int total) {
+                exits.add(scanned);
+            }
+        };
+        List<SearchHit> hits = FaceMatchingPipeline.search(alice, index, 2, recent, identities, earlyExit, listener);
+
+        assertEquals("one full block settles it, not the recent photos alone",
+                Collections.singletonList(FaceMatchingPipeline.BLOCK_SIZE), exits);
+        assertEquals(new HashSet<>(Arrays.asList(10, 20)), new HashSet<>(Arrays.asList(hits.get(0).row, hits.get(1).row)));
+
+        // Told apart only by base name, the second photo is a close runner-up and the scan runs to the end
+        exits.clear();
+        FaceMatchingPipeline.search(alice, index, 2, recent, null, earlyExit, listener);
+        assertTrue(exits.isEmpty());
+    }
+
+    private static float[] gaussian(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    /**
+     * Fills each quadrant of a FACE x FACE crop with one colour
+     */
+    private static int[] face(int topLeft, int topRight, int bottomLeft, int bottomRight) {
+        int[] pixels = new int[FACE * FACE];
+        for (int y = 0; y < FACE; y++) {
+            for (int x = 0; x < FACE; x++) {
+                boolean right = x >= FACE / 2;
+                boolean bottom = y >= FACE / 2;
+                pixels[y * FACE + x] = bottom ? (right ? bottomRight : bottomLeft) : (right ? topRight : topLeft);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Deterministic stand-in for the model: mean red, green and blue of each quadrant, offset
+     * so that black quadrants still point somewhere
+     */
+    private static class QuadrantEmbedder implements FaceEmbedder {
+        @Override
+        public int getDimension() {
+            return 12;
+        }
+
+        @Override
+        public float[] embed(int[] pixels, int width, int height) {
+            float[] sums = new float[12];
+            int[] counts = new int[4];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int quadrant = (y * 2 / height) * 2 + x * 2 / width;
+                    int pixel = pixels[y * width + x];
+                    sums[quadrant * 3] += (pixel >> 16) & 0xFF;
+                    sums[quadrant * 3 + 1] += (pixel >> 8) & 0xFF;
+                    sums[quadrant * 3 + 2] += pixel & 0xFF;
+                    counts[quadrant]++;
+                }
+            }
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = sums[i] / Math.max(1, counts[i / 3]) / 255f - 0.5f;
+            }
+            return sums;
+        }
+    }
+}
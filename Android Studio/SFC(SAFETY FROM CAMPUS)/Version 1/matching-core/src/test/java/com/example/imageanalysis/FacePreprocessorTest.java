@@ -0,0 +1,133 @@
+package com.example.imageanalysis;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests for the face preprocessing kernels.
+ */
+public class FacePreprocessorTest {
+
+    @Test
+    public void packPixels_normalizesChannels() {
+        ByteBuffer out = newInputBuffer();
+        int[] pixels = {0xFFFF8000, 0xFF0000FF};
+
+        FacePreprocessor.packPixels(pixels, pixels.length, out);
+
+        assertEquals(0, out.position());
+        assertEquals(1.0f, out.getFloat(0), 0f);
+        assertEquals(128 / 255.0f, out.getFloat(4), 0f);
+        assertEquals(0.0f, out.getFloat(8), 0f);
+        assertEquals(0.0f, out.getFloat(12), 0f);
+        assertEquals(0.0f, out.getFloat(16), 0f);
+        assertEquals(1.0f, out.getFloat(20), 0f);
+    }
+
+    @Test
+    public void pixelScratch_isReusedPerThread() {
+        assertSame(FacePreprocessor.pixelScratch(), FacePreprocessor.pixelScratch());
+        assertTrue(FacePreprocessor.pixelScratch().length >= FacePreprocessor.INPUT_PIXELS);
+    }
+
+    @Test
+    public void cropResizeNormalize_matchesPackPixelsWhenBoxIsModelSized() {
+        int size = FacePreprocessor.INPUT_SIZE;
+        int[] src = new int[size * size];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = 0xFF000000 | ((i * 7919) & 0xFFFFFF);
+        }
+        ByteBuffer expected = newInputBuffer();
+        ByteBuffer actual = newInputBuffer();
+
+        FacePreprocessor.packPixels(src, src.length, expected);
+        assertTrue(FacePreprocessor.cropResizeNormalize(src, size, size, 0, 0, size, size, actual));
+
+        for (int offset = 0; offset < FacePreprocessor.INPUT_BYTES; offset += 4) {
+            assertEquals(expected.getFloat(offset), actual.getFloat(offset), 1e-6f);
+        }
+    }
+
+    @Test
+    public void cropResizeNormalize_samplesOnlyInsideTheBox() {
+        // Left half red, right half blue; crop the right half only
+        int width = 400;
+        int height = 300;
+        int[] src = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                src[y * width + x] = x < 200 ? 0xFFFF0000 : 0xFF0000FF;
+            }
+        }
+        ByteBuffer out = newInputBuffer();
+
+        assertTrue(FacePreprocessor.cropResizeNormalize(src, width, height, 200, 50, 400, 250, out));
+
+        for (int offset = 0; offset < FacePreprocessor.INPUT_BYTES; offset += 12) {
+            assertEquals(0f, out.getFloat(offset), 0f);
+            assertEquals(1f, out.getFloat(offset + 8), 0f);
+        }
+    }
+
+    @Test
+    public void cropResizeNormalize_clampsOffFrameBoxes() {
+        int[] src = new int[50 * 40];
+        Arrays.fill(src, 0xFF808080);
+        ByteBuffer out = newInputBuffer();
+
+        assertTrue(FacePreprocessor.cropResizeNormalize(src, 50, 40, -30, -20, 70, 60, out));
+        assertEquals(128 / 255.0f, out.getFloat(FacePreprocessor.INPUT_BYTES - 4), 1e-6f);
+
+        assertFalse(FacePreprocessor.cropResizeNormalize(src, 50, 40, 60, 0, 90, 40, out));
+        assertFalse(FacePreprocessor.cropResizeNormalize(src, 50, 40, 10, 10, 10, 30, out));
+    }
+
+    @Test
+    public void pixelScratch_growsButIsReused() {
+        int[] large = FacePreprocessor.pixelScratch(500 * 500);
+        assertTrue(large.length >= 500 * 500);
+        assertSame(large, FacePreprocessor.pixelScratch());
+    }
+
+    @Test
+    public void preprocessing_doesNotAllocateInSteadyState() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        ByteBuffer out = newInputBuffer();
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up so class loading, scratch growth and JIT compilation are out of the measurement
+        runPreprocessing(out, 1_000);
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        runPreprocessing(out, 3_000);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        // A single 112x112 pixel array alone would be ~50 KB; allow only measurement noise
+        assertTrue("Allocated " + allocated + " bytes in steady state", allocated < 1024);
+    }
+
+    private static void runPreprocessing(ByteBuffer out, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            int[] pixels = FacePreprocessor.pixelScratch(200 * 160);
+            pixels[i % pixels.length] = i;
+            FacePreprocessor.packPixels(pixels, FacePreprocessor.INPUT_PIXELS, out);
+            FacePreprocessor.cropResizeNormalize(pixels, 200, 160, -10, 5, 150, 160, out);
+        }
+    }
+
+    private static ByteBuffer newInputBuffer() {
+        return ByteBuffer.allocateDirect(FacePreprocessor.INPUT_BYTES).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.imageanalysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the per-track embedding cache.
+ */
+public class FaceTrackCacheTest {
+
+    @Test
+    public void stats_countOnlyLookupsAnsweredAndEmbeddingsStored() {
+        FaceTrackCache<String> cache = new FaceTrackCache<>();
+
+        // Two faces miss; only one is embedded, the other was over the per-frame cap
+        assertNull(cache.lookup(1, 100, 0, 0));
+        assertNull(cache.lookup(2, 100, 0, 0));
+        cache.put(1, new float[]{1}, "EMP001", 100, 0, 0);
+
+        assertEquals("EMP001", cache.lookup(1, 110, 5, 100).match);
+        assertEquals(1, cache.getStats().hits);
+        assertEquals(1, cache.getStats().misses);
+    }
+
+    @Test
+    public void lookup_goesStaleWhenTheFaceGrowsTurnsOrAges() {
+        FaceTrackCache<String> cache = new FaceTrackCache<>();
+        cache.put(1, new float[]{1}, "EMP001", 100, 30, 0);
+
+        assertNotNull(cache.lookup(1, 120, -25, 100));
+        assertNull("grew", cache.lookup(1, 130, 30, 100));
+        assertNull("turned toward the camera", cache.lookup(1, 100, 15, 100));
+        assertNull("refresh interval", cache.lookup(1, 100, 30, FaceTrackCache.DEFAULT_REFRESH_INTERVAL_MS));
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.imageanalysis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the HNSW graph.
+ */
+public class HnswIndexTest {
+
+    private static final int DIMENSION = 128;
+    private static final int REFERENCES = 600;
+    private static final int TOP_K = 10;
+
+    private File folder;
+    private EmbeddingIndex index;
+    private final Random random = new Random(11);
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("references", "");
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdir());
+        index = EmbeddingIndex.open(new File(folder, EmbeddingIndex.FILE_NAME), DIMENSION);
+        for (int i = 0; i < REFERENCES; i++) {
+            index = index.put("ref" + i + ".jpg", i, 1, 1, gaussian());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void search_recallsTheBruteForceTopK() throws IOException {
+        HnswIndex graph = openGraph();
+        assertTrue(graph.syncWith(index));
+
+        assertEquals(REFERENCES, graph.size());
+        assertTrue(graph.measureRecall(probes(50), TOP_K) >= 0.95);
+
+        float[] probe = gaussian();
+        List<SearchHit> exact = FaceMatchingPipeline.search(probe, index, 1);
+        List<SearchHit> approx = graph.search(probe, 1);
+        assertEquals(index.getEntry(exact.get(0).row).fileName, graph.getKey(approx.get(0).row));
+        assertEquals(exact.get(0).score, approx.get(0).score, 1e-5);
+    }
+
+    @Test
+    public void insertAndDelete_inMemory() {
+        HnswIndex graph = HnswIndex.inMemory(DIMENSION, HnswIndex.Params.defaults());
+        float[] target = gaussian();
+        for (int i = 0; i < 100; i++) {
+            graph.insert("ref" + i + ".jpg", i, gaussian());
+        }
+        graph.insert("target.jpg", 1000, target);
+        assertEquals("target.jpg", graph.getKey(graph.search(target, 1).get(0).row));
+
+        assertTrue(graph.delete("target.jpg"));
+        assertFalse(graph.delete("target.jpg"));
+        assertFalse(graph.contains("target.jpg"));
+        assertEquals(100, graph.size());
+        for (SearchHit hit : graph.search(target, TOP_K)) {
+            assertNotEquals("tombstones are never returned", "target.jpg", graph.getKey(hit.row));
+        }
+
+        // Inserting an existing key replaces its vector
+        float[] moved = gaussian();
+        graph.insert("ref5.jpg", 5000, moved);
+        assertEquals(100, graph.size());
+        assertEquals("ref5.jpg", graph.getKey(graph.search(moved, 1).get(0).row));
+    }
+
+    @Test
+    public void saveAndReload_keepsTheGraphWithoutStoringIndexVectors() throws IOException {
+        HnswIndex graph = openGraph();
+        graph.syncWith(index);
+        float[] probe = gaussian();
+        List<SearchHit> before = graph.search(probe, TOP_K);
+
+        File graphFile = new File(folder, HnswIndex.FILE_NAME);
+        assertTrue("vectors stay in the embedding index",
+                graphFile.length() < (long) REFERENCES * DIMENSION * 4);
+
+        HnswIndex reopened = openGraph();
+        assertFalse("nothing changed since the save", reopened.syncWith(index));
+        List<SearchHit> after = reopened.search(probe, TOP_K);
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(graph.getKey(before.get(i).row), reopened.getKey(after.get(i).row));
+            assertEquals(before.get(i).score, after.get(i).score, 0);
+        }
+    }
+
+    @Test
+    public void syncWith_compactsOnceDeletionsPileUp() throws IOException {
+        HnswIndex graph = openGraph();
+        graph.syncWith(index);
+
+        float[] changed = gaussian();
+        index = index.put("ref1.jpg", 100_001, 2, 1, changed);
+        for (int i = 2; i < REFERENCES / 3; i++) {
+            index = index.remove("ref" + i + ".jpg");
+        }
+        assertTrue(graph.syncWith(index));
+
+        int live = REFERENCES - (REFERENCES / 3 - 2);
+        assertEquals(live, graph.size());
+        assertFalse(graph.contains("ref2.jpg"));
+        assertEquals("ref1.jpg", graph.getKey(graph.search(changed, 1).get(0).row));
+        assertTrue(graph.measureRecall(probes(50), TOP_K) >= 0.95);
+
+        // The compacted graph was saved and still lines up with the index after a reload
+        HnswIndex reopened = openGraph();
+        assertFalse(reopened.syncWith(index));
+        assertEquals(live, reopened.size());
+        assertEquals("ref1.jpg", reopened.getKey(reopened.search(changed, 1).get(0).row));
+    }
+
+    private HnswIndex openGraph() {
+        return HnswIndex.open(new File(folder, HnswIndex.FILE_NAME), DIMENSION, HnswIndex.Params.defaults());
+    }
+
+    private List<float[]> probes(int count) {
+        List<float[]> probes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            probes.add(gaussian());
+        }
+        return probes;
+    }
+
+    private float[] gaussian() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.imageanalysis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for identity grouping.
+ */
+public class IdentityIndexTest {
+
+    private File indexFile;
+    private EmbeddingIndex index;
+    private IdentityIndex identities;
+
+    @Before
+    public void setUp() throws IOException {
+        indexFile = File.createTempFile("embeddings", ".idx");
+        assertTrue(indexFile.delete());
+        index = EmbeddingIndex.open(indexFile, 3)
+                .put("rajveer.jpg", 1, 1, 1, new float[]{1f, 0.1f, 0f})
+                .put("rajveer_2.jpg", 2, 1, 1, new float[]{1f, 0f, 0.2f})
+                .put("asha.jpg", 3, 1, 1, new float[]{0f, 1f, 0f})
+                .put("guest.jpg", 4, 1, 1, new float[]{0f, 0f, 1f});
+        Map<String, String> identityByBaseName = new HashMap<>();
+        identityByBaseName.put("rajveer", "EMP001");
+        identityByBaseName.put("rajveer_2", "EMP001");
+        identityByBaseName.put("asha", "EMP002");
+        identities = IdentityIndex.build(index, identityByBaseName);
+    }
+
+    @After
+    public void tearDown() {
+        new File(indexFile.getPath() + ".journal").delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void build_groupsPhotosByIdAndKeepsStrangersApart() {
+        assertEquals(3, identities.size());
+    }
+
+    @Test
+    public void rerank_collapsesPhotoHitsToTheirBestPhoto() {
+        float[] probe = {1f, 0f, 0.25f};
+        List<SearchHit> photoHits = Arrays.asList(
+                new SearchHit(index.findRow("rajveer.jpg"), 0.9),
+                new SearchHit(index.findRow("rajveer_2.jpg"), 0.8),
+                new SearchHit(index.findRow("guest.jpg"), 0.2));
+
+        List<IdentityIndex.IdentityMatch> ranked = identities.rerank(probe, photoHits, 3, 10);
+
+        assertEquals(2, ranked.size());
+        assertEquals("EMP001", ranked.get(0).identityId);
+        assertEquals("re-ranked by the closest member photo", index.findRow("rajveer_2.jpg"), ranked.get(0).bestRow);
+        assertEquals(2, ranked.get(0).photoCount);
+        assertEquals("guest", ranked.get(1).identityId);
+    }
+
+    @Test
+    public void rerank_agreesWithCentroidSearchOnTheBestIdentity() {
+        float[] probe = {0.1f, 1f, 0f};
+        List<SearchHit> photoHits = FaceMatchingPipeline.search(probe, index, 4);
+
+        assertEquals(identities.search(probe, 1, 10).get(0).identityId,
+                identities.rerank(probe, photoHits, 1, 10).get(0).identityId);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.imageanalysis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the image statistics kernels.
+ */
+public class ImageStatisticsTest {
+
+    @Test
+    public void averageBrightness_visitsOnlyTheSampledGrid() {
+        // 4x2 image: the sampled pixels (step 2, every row) are white, the others black
+        int[] pixels = {
+                0xFFFFFFFF, 0xFF000000, 0xFFFFFFFF, 0xFF000000,
+                0xFFFFFFFF, 0xFF000000, 0xFFFFFFFF, 0xFF000000,
+        };
+        assertEquals(1.0, ImageStatistics.averageBrightness(pixels, 4, 2, 2, 1), 0);
+        assertEquals(0.5, ImageStatistics.averageBrightness(pixels, 4, 2, 1, 1), 0.01);
+        assertEquals(0.5, ImageStatistics.averageBrightness(new int[0], 0, 0, 1, 1), 0);
+    }
+
+    @Test
+    public void dominantColors_mostFrequentFirst() {
+        int[] pixels = {
+                0xFFFF0000, 0xFFFF0000, 0xFFFF0000,
+                0xFF0000FF, 0xFF0000FF, 0xFFFFFFFF,
+        };
+        assertEquals(Arrays.asList("Red", "Blue", "White"),
+                ImageStatistics.dominantColors(pixels, 3, 2, 1, 1, 3));
+        assertEquals(Arrays.asList("Red"), ImageStatistics.dominantColors(pixels, 3, 2, 1, 1, 1));
+        assertEquals("only colours that occur", 3, ImageStatistics.dominantColors(pixels, 3, 2, 1, 1, 5).size());
+    }
+
+    @Test
+    public void accumulator_rowByRowMatchesTheWholeImage() {
+        Random random = new Random(9);
+        int width = 37;
+        int height = 41;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        // Every 2nd row for brightness, every 4th for colours, through one row buffer
+        int[] row = new int[width];
+        ImageStatistics.Accumulator accumulator = new ImageStatistics.Accumulator();
+        for (int y = 0; y < height; y += 2) {
+            System.arraycopy(pixels, y * width, row, 0, width);
+            accumulator.addBrightness(row, 0, width, 2);
+            if (y % 4 == 0) accumulator.addColors(row, 0, width, 4);
+        }
+
+        assertEquals(ImageStatistics.averageBrightness(pixels, width, height, 2, 2),
+                accumulator.averageBrightness(), 0);
+        assertEquals(ImageStatistics.dominantColors(pixels, width, height, 4, 4, 3), accumulator.dominantColors(3));
+        assertEquals("reading the result leaves the counts alone",
+                accumulator.dominantColors(3), accumulator.dominantColors(3));
+    }
+
+    @Test
+    public void colorName_categories() {
+        assertEquals("White", ImageStatistics.colorName(0xFFF0F0F0));
+        assertEquals("Black", ImageStatistics.colorName(0xFF101010));
+        assertEquals("Green", ImageStatistics.colorName(0xFF20C020));
+        assertEquals("Yellow", ImageStatistics.colorName(0xFFC8C850));
+        assertEquals("Light", ImageStatistics.colorName(0xFF909090));
+        assertEquals("Dark", ImageStatistics.colorName(0xFF606060));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.imageanalysis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the int8 gallery scan.
+ */
+public class QuantizedEmbeddingsTest {
+
+    private static final int DIMENSION = 64;
+    private static final int PEOPLE = 100;
+    private static final int PHOTOS_PER_PERSON = 5;
+    private static final int TOP_K = 5;
+
+    private File indexFile;
+    private EmbeddingIndex index;
+    private float[][] people;
+    private final Random random = new Random(7);
+
+    @Before
+    public void setUp() throws IOException {
+        indexFile = File.createTempFile("embeddings", ".idx");
+        assertTrue(indexFile.delete());
+        // Several noisy photos around each person's direction, like real reference galleries
+        people = new float[PEOPLE][];
+        index = EmbeddingIndex.open(indexFile, DIMENSION);
+        for (int person = 0; person < PEOPLE; person++) {
+            people[person] = gaussian(1f);
+            for (int photo = 0; photo < PHOTOS_PER_PERSON; photo++) {
+                index = index.put(person + "_" + photo + ".jpg", person * PHOTOS_PER_PERSON + photo, 1, 1,
+                        near(people[person], 0.4f));
+            }
+        }
+        index = index.remove("0_0.jpg");
+    }
+
+    @After
+    public void tearDown() {
+        new File(indexFile.getPath() + ".journal").delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void search_agreesWithTheFloatTopK() {
+        QuantizedEmbeddings quantized = QuantizedEmbeddings.build(index);
+
+        for (int probe = 0; probe < 50; probe++) {
+            float[] query = near(people[random.nextInt(PEOPLE)], 0.5f);
+            List<SearchHit> exact = FaceMatchingPipeline.search(query, index, TOP_K);
+            List<SearchHit> approx = quantized.search(query, TOP_K, QuantizedEmbeddings.DEFAULT_MARGIN);
+
+            assertEquals(rows(exact), rows(approx));
+            assertEquals(exact.get(0).row, approx.get(0).row);
+            assertEquals("winners are re-scored in float", exact.get(0).score, approx.get(0).score, 1e-5);
+        }
+    }
+
+    @Test
+    public void search_skipsRowsWithoutEmbeddingAndReusesItsBuffersSafely() {
+        QuantizedEmbeddings quantized = QuantizedEmbeddings.build(index);
+        int removedRow = index.findRow("0_0.jpg");
+        float[] query = people[0];
+
+        List<SearchHit> first = quantized.search(query, TOP_K, QuantizedEmbeddings.DEFAULT_MARGIN);
+        quantized.search(people[1], TOP_K, QuantizedEmbeddings.DEFAULT_MARGIN);
+        List<SearchHit> best = quantized.search(query, 1, QuantizedEmbeddings.DEFAULT_MARGIN);
+        List<SearchHit> again = quantized.search(query, TOP_K, QuantizedEmbeddings.DEFAULT_MARGIN);
+
+        assertFalse(rows(first).contains(removedRow));
+        assertEquals(rows(first), rows(again));
+        assertEquals(1, best.size());
+        assertEquals(first.get(0).row, best.get(0).row);
+        assertEquals(1.0, quantized.evaluate(probes(20), TOP_K, QuantizedEmbeddings.DEFAULT_MARGIN).getRecallAtK(), 0);
+    }
+
+    private List<float[]> probes(int count) {
+        List<float[]> probes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            probes.add(near(people[random.nextInt(PEOPLE)], 0.5f));
+        }
+        return probes;
+    }
+
+    private float[] gaussian(float sigma) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian() * sigma;
+        }
+        return vector;
+    }
+
+    private float[] near(float[] center, float noise) {
+        float[] vector = gaussian(noise);
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] += center[i];
+        }
+        return vector;
+    }
+
+    private static Set<Integer> rows(List<SearchHit> hits) {
+        Set<Integer> rows = new HashSet<>();
+        for (SearchHit hit : hits) rows.add(hit.row);
+        return rows;
+    }
+}
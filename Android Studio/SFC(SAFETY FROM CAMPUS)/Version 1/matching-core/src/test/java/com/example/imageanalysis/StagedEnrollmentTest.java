@@ -0,0 +1,116 @@
+package com.example.imageanalysis;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the staged enrollment pipeline, with fake decoding and models.
+ */
+public class StagedEnrollmentTest {
+
+    /**
+     * Decodes a file to its name; the name also says which stage should fail on it
+     */
+    private static class FakeEnrollment extends StagedEnrollment<String> {
+        final AtomicInteger liveImages = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        boolean embedThrows;
+
+        FakeEnrollment() {
+            super(2, 2, 2, 2, 3);
+        }
+
+        @Override
+        protected String decode(File file) {
+            String name = file.getName();
+            if (name.startsWith("throw")) throw new IllegalStateException("corrupt " + name);
+            if (name.startsWith("oom")) throw new OutOfMemoryError("too large");
+            if (name.startsWith("undecodable")) return null;
+            liveImages.incrementAndGet();
+            return name;
+        }
+
+        @Override
+        protected String locateFace(File file, String image) throws IOException {
+            if (image.startsWith("detectfails")) throw new IOException("detector crashed");
+            if (image.startsWith("noface")) return null;
+            liveImages.incrementAndGet();
+            return "face:" + image;
+        }
+
+        @Override
+        protected float[][] embed(List<String> faces) {
+            if (embedThrows) throw new OutOfMemoryError("no memory for the batch");
+            float[][] embeddings = new float[faces.size()][];
+            for (int i = 0; i < faces.size(); i++) {
+                embeddings[i] = new float[]{faces.get(i).length()};
+            }
+            return embeddings;
+        }
+
+        @Override
+        protected void release(String image) {
+            liveImages.decrementAndGet();
+        }
+
+        @Override
+        protected void onFailure(String stage, File file, Throwable error) {
+            failures.incrementAndGet();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void embedAll_everyFileFinishesWhenStagesThrow() throws IOException {
+        FakeEnrollment enrollment = new FakeEnrollment();
+        List<File> files = files("a.jpg", "throw.jpg", "oom.jpg", "undecodable.jpg",
+                "detectfails.jpg", "noface.jpg", "bb.jpg");
+        List<Integer> progress = new ArrayList<>();
+        enrollment.setProgressListener((completed, total, imagesPerSecond) -> progress.add(completed));
+
+        float[][] embeddings = enrollment.embedAll(files);
+
+        assertArrayEquals(new float[]{"face:a.jpg".length()}, embeddings[0], 0);
+        for (int i = 1; i <= 5; i++) {
+            assertNull(files.get(i).getName(), embeddings[i]);
+        }
+        assertArrayEquals(new float[]{"face:bb.jpg".length()}, embeddings[6], 0);
+        assertEquals(3, enrollment.failures.get());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7), progress);
+        assertEquals("every image is released", 0, enrollment.liveImages.get());
+        assertEquals(7, enrollment.getLastStats().images);
+    }
+
+    @Test(timeout = 10000)
+    public void embedAll_failedBatchLeavesItsFilesWithoutEmbeddings() throws IOException {
+        FakeEnrollment enrollment = new FakeEnrollment();
+        enrollment.embedThrows = true;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            files.add(new File("ref" + i + ".jpg"));
+        }
+
+        float[][] embeddings = enrollment.embedAll(files);
+
+        assertEquals(20, embeddings.length);
+        for (float[] embedding : embeddings) {
+            assertNull(embedding);
+        }
+        assertEquals(0, enrollment.liveImages.get());
+    }
+
+    private static List<File> files(String... names) {
+        List<File> files = new ArrayList<>();
+        for (String name : names) {
+            files.add(new File(name));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.imageanalysis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for top-K selection.
+ */
+public class TopKTest {
+
+    @Test
+    public void keepsTheHighestScoresBestFirst() {
+        Random random = new Random(3);
+        double[] scores = new double[1000];
+        TopK topK = new TopK(10);
+        for (int row = 0; row < scores.length; row++) {
+            scores[row] = random.nextDouble();
+            topK.offer(row, scores[row]);
+        }
+
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        List<SearchHit> hits = topK.toSortedList();
+        assertEquals(10, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(sorted[sorted.length - 1 - i], hits.get(i).score, 0);
+            assertEquals(scores[hits.get(i).row], hits.get(i).score, 0);
+        }
+    }
+
+    @Test
+    public void threshold_isOpenUntilFull() {
+        TopK topK = new TopK(2);
+        assertEquals(Double.NEGATIVE_INFINITY, topK.threshold(), 0);
+        topK.offer(0, 0.5);
+        topK.offer(1, 0.9);
+        assertTrue(topK.isFull());
+        assertEquals(0.5, topK.threshold(), 0);
+        assertFalse(topK.offer(2, 0.4));
+        assertTrue(topK.offer(3, 0.7));
+        assertEquals(0.7, topK.threshold(), 0);
+    }
+
+    @Test
+    public void zeroCapacity_keepsNothing() {
+        TopK topK = new TopK(0);
+        assertFalse(topK.offer(0, 1.0));
+        assertTrue(topK.toSortedList().isEmpty());
+    }
+}
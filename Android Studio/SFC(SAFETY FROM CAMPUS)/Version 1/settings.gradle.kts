@@ -21,4 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "Image Analysis"
 include(":app")
+include(":matching-core")
+include(":matching-benchmarks")
  
\ No newline at end of file